@@ -0,0 +1,73 @@
+package io.wispforest.owo.command.debug;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import io.wispforest.owo.Owo;
+import io.wispforest.owo.network.ChannelMetrics;
+import io.wispforest.owo.ops.TextOps;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import static net.minecraft.server.command.CommandManager.literal;
+
+public class NetworkMetricsCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(literal("network-metrics")
+                .executes(NetworkMetricsCommand::executeDump)
+                .then(literal("reset").executes(NetworkMetricsCommand::executeReset)));
+    }
+
+    private static int executeDump(CommandContext<ServerCommandSource> context) {
+        final var source = context.getSource();
+
+        if (!ChannelMetrics.enabled()) {
+            source.sendError(TextOps.concat(Owo.PREFIX, Text.of("Network metrics are disabled, add -Dowo.network.metrics=true to enable them")));
+            return 0;
+        }
+
+        int messageClasses = 0;
+        for (var channelEntry : ChannelMetrics.all().entrySet()) {
+            final var channelMetrics = channelEntry.getValue();
+            if (channelMetrics.messages().isEmpty()) continue;
+
+            source.sendFeedback(TextOps.concat(Owo.PREFIX, TextOps.withColor("channel §" + channelEntry.getKey() + " §- saved §" + channelMetrics.compressionSavings() + " §bytes through compression",
+                    TextOps.color(Formatting.GRAY), OwoDebugCommands.GENERAL_PURPLE, TextOps.color(Formatting.GRAY), OwoDebugCommands.VALUE_BLUE, TextOps.color(Formatting.GRAY))), false);
+
+            for (var messageEntry : channelMetrics.messages().entrySet()) {
+                final var metrics = messageEntry.getValue();
+                messageClasses++;
+
+                source.sendFeedback(TextOps.withColor("-> §" + messageEntry.getKey().getSimpleName()
+                                + " §out: " + metrics.messagesSent() + " / " + metrics.bytesSent() + "B"
+                                + " - in: " + metrics.messagesReceived() + " / " + metrics.bytesReceived() + "B"
+                                + " - decode: " + micros(metrics.decodeNanos(), metrics.messagesReceived())
+                                + " queue: " + micros(metrics.queueDelayNanos(), metrics.messagesHandled())
+                                + " handler: " + micros(metrics.handlerNanos(), metrics.messagesHandled()),
+                        TextOps.color(Formatting.GRAY), OwoDebugCommands.KEY_BLUE, OwoDebugCommands.VALUE_BLUE), false);
+            }
+        }
+
+        if (messageClasses == 0) {
+            source.sendFeedback(TextOps.concat(Owo.PREFIX, Text.literal("No network traffic recorded yet").formatted(Formatting.GRAY)), false);
+        }
+
+        return messageClasses;
+    }
+
+    private static int executeReset(CommandContext<ServerCommandSource> context) {
+        ChannelMetrics.all().values().forEach(ChannelMetrics::reset);
+
+        context.getSource().sendFeedback(TextOps.concat(Owo.PREFIX, Text.literal("Network metrics reset").formatted(Formatting.GRAY)), false);
+        return 0;
+    }
+
+    /**
+     * Formats the average of the given total duration in microseconds
+     */
+    private static String micros(long totalNanos, long count) {
+        if (count == 0) return "-";
+        return String.format("%.1fµs", totalNanos / (double) count / 1000d);
+    }
+}
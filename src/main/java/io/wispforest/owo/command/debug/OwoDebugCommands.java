@@ -130,6 +130,7 @@ public class OwoDebugCommands {
             DumpdataCommand.register(dispatcher);
             DamageCommand.register(dispatcher);
             HealCommand.register(dispatcher);
+            NetworkMetricsCommand.register(dispatcher);
 
             if (FabricLoader.getInstance().isModLoaded("cardinal-components-base")) {
                 CcaDataCommand.register(dispatcher);
@@ -41,6 +41,20 @@ public class NbtKey<T> {
         this.type = type;
     }
 
+    /**
+     * @return The string key this key uses as index into NBT compounds
+     */
+    public String key() {
+        return this.key;
+    }
+
+    /**
+     * @return The NBT type ID of the elements this key stores, eg. {@link NbtElement#INT_TYPE}
+     */
+    public byte nbtType() {
+        return this.type.nbtEquivalent;
+    }
+
     /**
      * @deprecated Use {@link NbtCarrier#get(NbtKey)} instead
      */
@@ -99,6 +113,11 @@ public class NbtKey<T> {
         public boolean isIn(@NotNull NbtCompound nbt) {
             return nbt.contains(this.key, NbtElement.LIST_TYPE);
         }
+
+        @Override
+        public byte nbtType() {
+            return NbtElement.LIST_TYPE;
+        }
     }
 
     /**
@@ -0,0 +1,46 @@
+package io.wispforest.owo.network;
+
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.PacketByteBuf;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Learns the typical encoded size of one kind of message, so that
+ * buffers for it can be allocated at the right capacity up front instead
+ * of starting small and being grown - and thereby copied - repeatedly
+ * <p>
+ * The hint follows increases immediately and decays slowly,
+ * so occasional small messages don't shrink it
+ */
+@ApiStatus.Internal
+public final class BufferSizeHint {
+
+    private static final int MIN_HINT = 16;
+    private static final int MAX_HINT = 1 << 20;
+
+    // written without synchronization, a stale hint is harmless
+    private int hint = MIN_HINT;
+
+    /**
+     * @return A new buffer with the capacity this hint currently suggests
+     */
+    public PacketByteBuf allocate() {
+        return new PacketByteBuf(Unpooled.buffer(this.hint));
+    }
+
+    /**
+     * Updates this hint with the final size of a buffer
+     * obtained from {@link #allocate()}
+     *
+     * @param size The amount of bytes which were written to the buffer
+     */
+    public void record(int size) {
+        final int hint = this.hint;
+
+        if (size >= hint) {
+            this.hint = Math.min(size, MAX_HINT);
+        } else {
+            this.hint = Math.max(hint - ((hint - size) >> 4), MIN_HINT);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package io.wispforest.owo.network;
+
+import io.wispforest.owo.Owo;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic and timing statistics of a single {@link OwoNetChannel}, broken
+ * down by message class. Obtain the metrics of a channel via {@link OwoNetChannel#metrics()}
+ * <p>
+ * Per-message statistics are only recorded if oωo debug is enabled or the
+ * {@code -Dowo.network.metrics=true} java argument is present - otherwise
+ * only the compression statistics are collected
+ */
+public final class ChannelMetrics {
+
+    static final boolean ENABLED = Owo.DEBUG || Boolean.getBoolean("owo.network.metrics");
+
+    private final Map<Class<?>, MessageMetrics> metricsByClass = new ConcurrentHashMap<>();
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    ChannelMetrics() {}
+
+    /**
+     * @return {@code true} if per-message statistics are being recorded
+     */
+    public static boolean enabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return The metrics of every registered channel, keyed by channel ID
+     */
+    public static Map<Identifier, ChannelMetrics> all() {
+        final var metrics = new LinkedHashMap<Identifier, ChannelMetrics>();
+        OwoNetChannel.REGISTERED_CHANNELS.forEach((id, channel) -> metrics.put(id, channel.metrics()));
+        return metrics;
+    }
+
+    /**
+     * @param messageClass The message class to look up
+     * @return The statistics of the given message class, or {@code null}
+     * if no message of that class has been sent or received yet
+     */
+    public @Nullable MessageMetrics get(Class<? extends Record> messageClass) {
+        return this.metricsByClass.get(messageClass);
+    }
+
+    /**
+     * @return An unmodifiable view of the statistics of all message
+     * classes which have been sent or received so far
+     */
+    public Map<Class<?>, MessageMetrics> messages() {
+        return Collections.unmodifiableMap(this.metricsByClass);
+    }
+
+    /**
+     * @return The total amount of bytes saved by compressing payloads
+     * @see OwoNetChannel#compressPayloads(int)
+     */
+    public long compressionSavings() {
+        return this.uncompressedBytes.sum() - this.compressedBytes.sum();
+    }
+
+    /**
+     * Discards all statistics collected so far
+     */
+    public void reset() {
+        this.metricsByClass.clear();
+        this.uncompressedBytes.reset();
+        this.compressedBytes.reset();
+    }
+
+    void recordCompression(int uncompressedSize, int compressedSize) {
+        this.uncompressedBytes.add(uncompressedSize);
+        this.compressedBytes.add(compressedSize);
+    }
+
+    void recordSent(Class<?> messageClass, int bytes, int count) {
+        if (!ENABLED) return;
+
+        final var metrics = this.track(messageClass);
+        metrics.messagesEncoded.increment();
+        metrics.messagesSent.add(count);
+        metrics.bytesSent.add((long) bytes * count);
+    }
+
+    /**
+     * @return The metrics the handler of the received message should be
+     * instrumented with, or {@code null} if metrics are disabled
+     */
+    @Nullable MessageMetrics recordReceived(Class<?> messageClass, int bytes, long decodeNanos) {
+        if (!ENABLED) return null;
+
+        final var metrics = this.track(messageClass);
+        metrics.messagesReceived.increment();
+        metrics.bytesReceived.add(bytes);
+        metrics.decodeNanos.add(decodeNanos);
+        return metrics;
+    }
+
+    /**
+     * Wraps the given handler invocation so that its queue delay,
+     * measured from {@code receivedAt}, and execution time are recorded
+     */
+    static Runnable instrument(@Nullable MessageMetrics metrics, long receivedAt, Runnable handler) {
+        if (metrics == null) return handler;
+
+        return () -> {
+            final long start = System.nanoTime();
+            metrics.queueDelayNanos.add(start - receivedAt);
+
+            try {
+                handler.run();
+            } finally {
+                metrics.handlerNanos.add(System.nanoTime() - start);
+                metrics.messagesHandled.increment();
+            }
+        };
+    }
+
+    private MessageMetrics track(Class<?> messageClass) {
+        return this.metricsByClass.computeIfAbsent(messageClass, clazz -> new MessageMetrics());
+    }
+
+    /**
+     * The statistics of a single message class. All durations are in nanoseconds
+     * and accumulated over all messages - divide by {@link #messagesReceived()}
+     * or {@link #messagesHandled()} respectively to obtain averages
+     */
+    public static final class MessageMetrics {
+
+        private final LongAdder messagesEncoded = new LongAdder();
+        private final LongAdder messagesSent = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder messagesReceived = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder messagesHandled = new LongAdder();
+
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder queueDelayNanos = new LongAdder();
+        private final LongAdder handlerNanos = new LongAdder();
+
+        private MessageMetrics() {}
+
+        /**
+         * @return The amount of times a sent message was serialized - a message
+         * sent to multiple players at once is only serialized and counted once,
+         * unless the channel delta-encodes it for every player individually
+         */
+        public long messagesEncoded() {
+            return this.messagesEncoded.sum();
+        }
+
+        /**
+         * @return The amount of messages sent, counting every target player separately
+         */
+        public long messagesSent() {
+            return this.messagesSent.sum();
+        }
+
+        /**
+         * @return The amount of bytes sent, before compression
+         */
+        public long bytesSent() {
+            return this.bytesSent.sum();
+        }
+
+        public long messagesReceived() {
+            return this.messagesReceived.sum();
+        }
+
+        /**
+         * @return The amount of bytes received, after decompression
+         */
+        public long bytesReceived() {
+            return this.bytesReceived.sum();
+        }
+
+        /**
+         * @return The amount of received messages whose handler has completed
+         */
+        public long messagesHandled() {
+            return this.messagesHandled.sum();
+        }
+
+        /**
+         * @return The total time spent deserializing received messages
+         */
+        public long decodeNanos() {
+            return this.decodeNanos.sum();
+        }
+
+        /**
+         * @return The total time received messages spent waiting
+         * between arriving on the network thread and their handler
+         * being invoked, usually on the game thread
+         */
+        public long queueDelayNanos() {
+            return this.queueDelayNanos.sum();
+        }
+
+        /**
+         * @return The total time spent executing message handlers
+         */
+        public long handlerNanos() {
+            return this.handlerNanos.sum();
+        }
+    }
+}
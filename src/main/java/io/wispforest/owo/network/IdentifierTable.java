@@ -0,0 +1,90 @@
+package io.wispforest.owo.network;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.Identifier;
+
+import java.util.*;
+
+/**
+ * A table of identifier namespaces, shared by both sides of the handshake.
+ * The server sends its table once with the handshake query, after which
+ * identifiers are written as the VarInt index of their namespace followed
+ * by their path. Namespaces missing from the table are written in full
+ */
+final class IdentifierTable {
+
+    private final List<String> namespaces;
+    private final Object2IntMap<String> indices = new Object2IntOpenHashMap<>();
+
+    private IdentifierTable(List<String> namespaces) {
+        this.namespaces = namespaces;
+        this.indices.defaultReturnValue(-1);
+
+        for (int i = 0; i < namespaces.size(); i++) {
+            this.indices.put(namespaces.get(i), i);
+        }
+    }
+
+    /**
+     * Creates a table containing the namespaces of all given identifiers
+     */
+    static IdentifierTable of(Collection<Identifier> identifiers) {
+        final var namespaces = new TreeSet<String>();
+        for (var identifier : identifiers) namespaces.add(identifier.getNamespace());
+
+        return new IdentifierTable(List.copyOf(namespaces));
+    }
+
+    static IdentifierTable read(PacketByteBuf buf) {
+        final int size = buf.readVarInt();
+
+        final var namespaces = new ArrayList<String>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) namespaces.add(buf.readString());
+
+        return new IdentifierTable(namespaces);
+    }
+
+    void write(PacketByteBuf buf) {
+        buf.writeVarInt(this.namespaces.size());
+        for (var namespace : this.namespaces) buf.writeString(namespace);
+    }
+
+    void writeIdentifier(PacketByteBuf buf, Identifier identifier) {
+        final int index = this.indices.getInt(identifier.getNamespace());
+
+        buf.writeVarInt(index + 1);
+        if (index == -1) buf.writeString(identifier.getNamespace());
+
+        buf.writeString(identifier.getPath());
+    }
+
+    Identifier readIdentifier(PacketByteBuf buf) {
+        final int index = buf.readVarInt() - 1;
+        if (index >= this.namespaces.size()) throw new NetworkException("Identifier table index " + index + " is out of bounds");
+
+        final var namespace = index == -1 ? buf.readString() : this.namespaces.get(index);
+        return new Identifier(namespace, buf.readString());
+    }
+
+    void writeHashes(PacketByteBuf buf, Map<Identifier, Integer> hashes) {
+        buf.writeVarInt(hashes.size());
+
+        for (var entry : hashes.entrySet()) {
+            this.writeIdentifier(buf, entry.getKey());
+            buf.writeInt(entry.getValue());
+        }
+    }
+
+    Map<Identifier, Integer> readHashes(PacketByteBuf buf) {
+        final int size = buf.readVarInt();
+
+        final var hashes = new HashMap<Identifier, Integer>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) {
+            hashes.put(this.readIdentifier(buf), buf.readInt());
+        }
+
+        return hashes;
+    }
+}
@@ -3,9 +3,9 @@ package io.wispforest.owo.network;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.wispforest.owo.Owo;
-import io.wispforest.owo.network.serialization.PacketBufSerializer;
 import io.wispforest.owo.ops.TextOps;
 import io.wispforest.owo.particles.systems.ParticleSystemController;
+import io.wispforest.owo.util.OwoFreezer;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.fabric.api.client.networking.v1.ClientLoginConnectionEvents;
@@ -26,11 +26,10 @@ import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.Pair;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.ToIntFunction;
@@ -38,18 +37,27 @@ import java.util.function.ToIntFunction;
 @ApiStatus.Internal
 public class OwoHandshake {
 
-    @SuppressWarnings("unchecked")
-    private static final PacketBufSerializer<Map<Identifier, Integer>> RESPONSE_SERIALIZER =
-            (PacketBufSerializer<Map<Identifier, Integer>>) (Object) PacketBufSerializer.createMapSerializer(Map.class, Identifier.class, Integer.class);
-
     private static final MutableText PREFIX = TextOps.concat(Owo.PREFIX, Text.of("§chandshake failure\n"));
     public static final Identifier CHANNEL_ID = new Identifier("owo", "handshake");
     public static final Identifier OFF_CHANNEL_ID = new Identifier("owo", "handshake_off");
 
+    /**
+     * Prefixes the query and the response, so that sides which speak
+     * a different handshake format reject each other cleanly instead
+     * of failing to parse the packet. Bump whenever the format changes
+     */
+    private static final int PROTOCOL_VERSION = 2;
+
     private static final boolean ENABLED = !Boolean.getBoolean("owo.handshake.disable");
     private static boolean HANDSHAKE_REQUIRED = false;
     private static boolean QUERY_RECEIVED = false;
 
+    /**
+     * The hashes of all services, computed once services are frozen
+     * since they cannot change afterwards
+     */
+    private static @Nullable ServiceHashes FROZEN_HASHES = null;
+
     // ------------
     // Registration
     // ------------
@@ -61,6 +69,8 @@ public class OwoHandshake {
     }
 
     static {
+        OwoFreezer.registerFreezeCallback(() -> FROZEN_HASHES = ServiceHashes.compute());
+
         ServerLoginConnectionEvents.QUERY_START.register(OwoHandshake::queryStart);
         ServerLoginNetworking.registerGlobalReceiver(OwoHandshake.CHANNEL_ID, OwoHandshake::syncServer);
 
@@ -90,8 +100,17 @@ public class OwoHandshake {
     private static void queryStart(ServerLoginNetworkHandler serverLoginNetworkHandler, MinecraftServer server, PacketSender sender, ServerLoginNetworking.LoginSynchronizer loginSynchronizer) {
         if (!ENABLED) return;
 
+        final var hashes = hashes();
+
         var request = PacketByteBufs.create();
-        writeHashes(request, OwoNetChannel.OPTIONAL_CHANNELS, OwoHandshake::hashChannel);
+        request.writeVarInt(PROTOCOL_VERSION);
+        hashes.identifiers.write(request);
+
+        request.writeLong(hashes.requiredChannels.digest());
+        request.writeLong(hashes.controllers.digest());
+        request.writeLong(hashes.optionalChannels.digest());
+        hashes.identifiers.writeHashes(request, hashes.optionalChannels.hashes());
+
         sender.sendPacket(OwoHandshake.CHANNEL_ID, request);
         Owo.LOGGER.info("[Handshake] Sending channel query");
     }
@@ -101,15 +120,33 @@ public class OwoHandshake {
         Owo.LOGGER.info("[Handshake] Sending client channels");
         QUERY_RECEIVED = true;
 
-        if (buf.readableBytes() > 0) {
-            final var serverOptionalChannels = RESPONSE_SERIALIZER.deserializer().apply(buf);
-            ((OwoClientConnectionExtension) clientLoginNetworkHandler.getConnection()).owo$setChannelSet(verifyOptionalServices(serverOptionalChannels, OwoNetChannel.REGISTERED_CHANNELS, OwoHandshake::hashChannel));
+        var response = PacketByteBufs.create();
+        response.writeVarInt(PROTOCOL_VERSION);
+
+        final int serverVersion = readProtocolVersion(buf);
+        if (serverVersion != PROTOCOL_VERSION) {
+            // the server decides whether to disconnect, until then no optional services can be used
+            Owo.LOGGER.warn("[Handshake] Server uses handshake protocol {}, but the client uses {}", serverVersion, PROTOCOL_VERSION);
+            ((OwoClientConnectionExtension) clientLoginNetworkHandler.getConnection()).owo$setChannelSet(new HashSet<>());
+            return CompletableFuture.completedFuture(response);
         }
 
-        var response = PacketByteBufs.create();
-        writeHashes(response, OwoNetChannel.REQUIRED_CHANNELS, OwoHandshake::hashChannel);
-        writeHashes(response, ParticleSystemController.REGISTERED_CONTROLLERS, OwoHandshake::hashController);
-        writeHashes(response, OwoNetChannel.OPTIONAL_CHANNELS, OwoHandshake::hashChannel);
+        final var hashes = hashes();
+        final var identifiers = IdentifierTable.read(buf);
+
+        final long serverRequiredDigest = buf.readLong();
+        final long serverControllersDigest = buf.readLong();
+        final long serverOptionalDigest = buf.readLong();
+
+        final var serverOptionalChannels = identifiers.readHashes(buf);
+        ((OwoClientConnectionExtension) clientLoginNetworkHandler.getConnection()).owo$setChannelSet(serverOptionalDigest == hashes.optionalChannels.digest()
+                ? new HashSet<>(serverOptionalChannels.keySet())
+                : verifyOptionalServices(serverOptionalChannels, hashes.registeredChannels.hashes()));
+
+        // only the hashes of services which differ from the server's are sent in full
+        writeHashesIfChanged(response, identifiers, hashes.requiredChannels, serverRequiredDigest);
+        writeHashesIfChanged(response, identifiers, hashes.controllers, serverControllersDigest);
+        writeHashesIfChanged(response, identifiers, hashes.optionalChannels, serverOptionalDigest);
 
         return CompletableFuture.completedFuture(response);
     }
@@ -124,22 +161,37 @@ public class OwoHandshake {
             return;
         }
 
-        final var clientChannels = RESPONSE_SERIALIZER.deserializer().apply(buf);
-        final var clientParticleControllers = RESPONSE_SERIALIZER.deserializer().apply(buf);
+        final int clientVersion = readProtocolVersion(buf);
+        if (clientVersion != PROTOCOL_VERSION) {
+            Owo.LOGGER.info("[Handshake] Client uses handshake protocol {}, but the server uses {}", clientVersion, PROTOCOL_VERSION);
+
+            if (HANDSHAKE_REQUIRED) {
+                handler.disconnect(TextOps.concat(PREFIX, Text.of("incompatible owo version")));
+            } else {
+                ((OwoClientConnectionExtension) handler.getConnection()).owo$setChannelSet(new HashSet<>());
+            }
+
+            return;
+        }
+
+        final var hashes = hashes();
+
+        final var clientChannels = readHashesIfChanged(buf, hashes.identifiers);
+        final var clientParticleControllers = readHashesIfChanged(buf, hashes.identifiers);
+        final var clientOptionalChannels = readHashesIfChanged(buf, hashes.identifiers);
 
         StringBuilder disconnectMessage = new StringBuilder();
 
-        boolean isAllGood = verifyReceivedHashes("channels", clientChannels, OwoNetChannel.REQUIRED_CHANNELS, OwoHandshake::hashChannel, disconnectMessage);
-        isAllGood &= verifyReceivedHashes("controllers", clientParticleControllers, ParticleSystemController.REGISTERED_CONTROLLERS, OwoHandshake::hashController, disconnectMessage);
+        boolean isAllGood = clientChannels == null || verifyReceivedHashes("channels", clientChannels, hashes.requiredChannels.hashes(), disconnectMessage);
+        isAllGood &= clientParticleControllers == null || verifyReceivedHashes("controllers", clientParticleControllers, hashes.controllers.hashes(), disconnectMessage);
 
         if (!isAllGood) {
             handler.disconnect(TextOps.concat(PREFIX, Text.of(disconnectMessage.toString())));
         }
 
-        if (buf.readableBytes() > 0) {
-            final var clientOptionalChannels = RESPONSE_SERIALIZER.deserializer().apply(buf);
-            ((OwoClientConnectionExtension) handler.getConnection()).owo$setChannelSet(verifyOptionalServices(clientOptionalChannels, OwoNetChannel.OPTIONAL_CHANNELS, OwoHandshake::hashChannel));
-        }
+        ((OwoClientConnectionExtension) handler.getConnection()).owo$setChannelSet(clientOptionalChannels == null
+                ? new HashSet<>(hashes.optionalChannels.hashes().keySet())
+                : verifyOptionalServices(clientOptionalChannels, hashes.optionalChannels.hashes()));
 
         Owo.LOGGER.info("[Handshake] Handshake completed successfully");
     }
@@ -156,15 +208,33 @@ public class OwoHandshake {
     // Utility
     // -------
 
-    private static <T> Set<Identifier> verifyOptionalServices(Map<Identifier, Integer> remoteMap, Map<Identifier, T> localMap, ToIntFunction<T> hashFunction) {
+    /**
+     * @return The handshake protocol version the packet in the given buffer
+     * was written with, or {@code -1} if it does not start with a valid one,
+     * as is the case for packets written by versions before it was introduced
+     */
+    private static int readProtocolVersion(PacketByteBuf buf) {
+        try {
+            return buf.readVarInt();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static ServiceHashes hashes() {
+        final var hashes = FROZEN_HASHES;
+        return hashes != null ? hashes : ServiceHashes.compute();
+    }
+
+    private static Set<Identifier> verifyOptionalServices(Map<Identifier, Integer> remoteMap, Map<Identifier, Integer> localHashes) {
         Set<Identifier> readableServices = new HashSet<>();
 
         for (var entry : remoteMap.entrySet()) {
-            var service = localMap.get(entry.getKey());
+            var localHash = localHashes.get(entry.getKey());
 
-            if (service == null) continue;
+            if (localHash == null) continue;
 
-            if (hashFunction.applyAsInt(service) != entry.getValue()) continue;
+            if (!localHash.equals(entry.getValue())) continue;
 
             readableServices.add(entry.getKey());
         }
@@ -172,7 +242,7 @@ public class OwoHandshake {
         return readableServices;
     }
 
-    private static <T> boolean verifyReceivedHashes(String serviceNamePlural, Map<Identifier, Integer> clientMap, Map<Identifier, T> serverMap, ToIntFunction<T> hashFunction, StringBuilder disconnectMessage) {
+    private static boolean verifyReceivedHashes(String serviceNamePlural, Map<Identifier, Integer> clientMap, Map<Identifier, Integer> serverMap, StringBuilder disconnectMessage) {
         boolean isAllGood = true;
 
         if (!clientMap.keySet().equals(serverMap.keySet())) {
@@ -193,12 +263,10 @@ public class OwoHandshake {
 
         boolean hasMismatchedHashes = false;
         for (var entry : clientMap.entrySet()) {
-            var actualServiceObject = serverMap.get(entry.getKey());
-            if (actualServiceObject == null) continue;
+            var localHash = serverMap.get(entry.getKey());
+            if (localHash == null) continue;
 
-            int localHash = hashFunction.applyAsInt(actualServiceObject);
-
-            if (localHash != entry.getValue()) {
+            if (!localHash.equals(entry.getValue())) {
                 if (!hasMismatchedHashes) disconnectMessage.append(serviceNamePlural).append(" with mismatched hashes:\n");
 
                 disconnectMessage.append("§7").append(entry.getKey()).append("§r\n");
@@ -211,14 +279,19 @@ public class OwoHandshake {
         return isAllGood;
     }
 
-    private static <T> void writeHashes(PacketByteBuf buffer, Map<Identifier, T> values, ToIntFunction<T> hashFunction) {
-        Map<Identifier, Integer> hashes = new HashMap<>();
+    private static void writeHashesIfChanged(PacketByteBuf buffer, IdentifierTable identifiers, HashTable table, long remoteDigest) {
+        final boolean changed = table.digest() != remoteDigest;
 
-        for (var entry : values.entrySet()) {
-            hashes.put(entry.getKey(), hashFunction.applyAsInt(entry.getValue()));
-        }
+        buffer.writeBoolean(changed);
+        if (changed) identifiers.writeHashes(buffer, table.hashes());
+    }
 
-        RESPONSE_SERIALIZER.serializer().accept(buffer, hashes);
+    /**
+     * @return The received hashes, or {@code null} if
+     * they matched the local digest and were not sent
+     */
+    private static @Nullable Map<Identifier, Integer> readHashesIfChanged(PacketByteBuf buffer, IdentifierTable identifiers) {
+        return buffer.readBoolean() ? identifiers.readHashes(buffer) : null;
     }
 
     private static Pair<Set<Identifier>, Set<Identifier>> findCollisions(Set<Identifier> first, Set<Identifier> second) {
@@ -241,7 +314,11 @@ public class OwoHandshake {
         for (var entry : channel.serializersByIndex.int2ObjectEntrySet()) {
             serializersHash += entry.getIntKey() * 31 + entry.getValue().serializer.getRecordClass().getName().hashCode();
         }
-        return 31 * channel.packetId.hashCode() + serializersHash;
+
+        int hash = 31 * channel.packetId.hashCode() + serializersHash;
+        if (channel.deltaClientbound) hash = 31 * hash + 1;
+
+        return hash;
     }
 
     private static int hashController(ParticleSystemController controller) {
@@ -249,6 +326,64 @@ public class OwoHandshake {
         for (var entry : controller.systemsByIndex.int2ObjectEntrySet()) {
             serializersHash += entry.getIntKey();
         }
-        return 31 * controller.channelId.hashCode() + serializersHash;
+        return 31 * (31 * controller.channelId.hashCode() + serializersHash) + controller.positionEncoding().ordinal();
+    }
+
+    private record ServiceHashes(HashTable requiredChannels, HashTable optionalChannels, HashTable registeredChannels, HashTable controllers, IdentifierTable identifiers) {
+        private static ServiceHashes compute() {
+            final var identifiers = new ArrayList<Identifier>(OwoNetChannel.REGISTERED_CHANNELS.keySet());
+            identifiers.addAll(ParticleSystemController.REGISTERED_CONTROLLERS.keySet());
+
+            return new ServiceHashes(
+                    HashTable.of(OwoNetChannel.REQUIRED_CHANNELS, OwoHandshake::hashChannel),
+                    HashTable.of(OwoNetChannel.OPTIONAL_CHANNELS, OwoHandshake::hashChannel),
+                    HashTable.of(OwoNetChannel.REGISTERED_CHANNELS, OwoHandshake::hashChannel),
+                    HashTable.of(ParticleSystemController.REGISTERED_CONTROLLERS, OwoHandshake::hashController),
+                    IdentifierTable.of(identifiers)
+            );
+        }
+    }
+
+    /**
+     * The hashes of a set of services, along with a digest
+     * that identifies the entire set
+     */
+    private record HashTable(Map<Identifier, Integer> hashes, long digest) {
+        private static <T> HashTable of(Map<Identifier, T> services, ToIntFunction<T> hashFunction) {
+            final var hashes = new HashMap<Identifier, Integer>();
+            long digest = services.size();
+
+            for (var entry : services.entrySet()) {
+                final int hash = hashFunction.applyAsInt(entry.getValue());
+                hashes.put(entry.getKey(), hash);
+
+                // summed, so the digest does not depend on iteration order
+                digest += mix(hashIdentifier(entry.getKey()) + mix(hash & 0xFFFFFFFFL));
+            }
+
+            return new HashTable(Collections.unmodifiableMap(hashes), digest);
+        }
+
+        /**
+         * Hashes the full string form of the given identifier with 64-bit FNV-1a,
+         * since {@link Identifier#hashCode()} is too easy to collide for a digest
+         */
+        private static long hashIdentifier(Identifier identifier) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : identifier.toString().getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        private static long mix(long value) {
+            value ^= value >>> 33;
+            value *= 0xff51afd7ed558ccdL;
+            value ^= value >>> 33;
+            value *= 0xc4ceb9fe1a85ec53L;
+            value ^= value >>> 33;
+            return value;
+        }
     }
 }
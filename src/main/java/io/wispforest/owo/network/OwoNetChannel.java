@@ -1,5 +1,7 @@
 package io.wispforest.owo.network;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.wispforest.owo.Owo;
 import io.wispforest.owo.network.serialization.PacketBufSerializer;
 import io.wispforest.owo.network.serialization.RecordSerializer;
 import io.wispforest.owo.util.OwoFreezer;
@@ -10,9 +12,12 @@ import it.unimi.dsi.fastutil.objects.Reference2IntMap;
 import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.fabricmc.fabric.api.networking.v1.PlayerLookup;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.block.entity.BlockEntity;
@@ -26,8 +31,13 @@ import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -54,7 +64,16 @@ import java.util.stream.Collectors;
  * <i>to the server</i> and vice-versa.
  *
  * <p> The registered packet handlers are executed synchronously on the target environment's
- * game thread instead of Netty's event loops - there is no need to call {@code .execute(...)}
+ * game thread instead of Netty's event loops - there is no need to call {@code .execute(...)}.
+ * Thread-safe handlers which don't touch game state can instead be registered with a different
+ * {@link DispatchPolicy} to keep them off the game thread
+ *
+ * <p> Channels which send many small messages per tick can opt into batching with
+ * {@link #batchClientbound()}, which packs all messages sent to the same player
+ * during a server tick into a single packet. Channels which periodically synchronize state can
+ * opt into {@link #deltaEncodeClientbound()}, which only transmits the record components that changed
+ * since the last message of the same class sent to a given player. Channels carrying large messages
+ * can opt into {@link #compressPayloads(int)}, which deflates all packets above a size threshold
  *
  * @see PacketBufSerializer#register(Class, BiConsumer, Function)
  * @see PacketBufSerializer#registerCollectionProvider(Class, Supplier)
@@ -64,6 +83,38 @@ public class OwoNetChannel {
     static final Map<Identifier, OwoNetChannel> REGISTERED_CHANNELS = new HashMap<>();
     static final Map<Identifier, OwoNetChannel> REQUIRED_CHANNELS = new HashMap<>();
     static final Map<Identifier, OwoNetChannel> OPTIONAL_CHANNELS = new HashMap<>();
+    private static final List<OwoNetChannel> BATCHING_CHANNELS = new ArrayList<>();
+
+    /**
+     * Handler index 0 is never assigned to an actual handler,
+     * so it marks packets containing a batch of messages
+     */
+    private static final int BATCH_HANDLER_INDEX = 0;
+
+    /**
+     * Batches are sent early once they would exceed this size,
+     * to stay clear of the vanilla custom payload size limit
+     */
+    private static final int MAX_BATCH_SIZE = 1 << 19;
+
+    /**
+     * Negative handler indices are never assigned either,
+     * so this marks packets with a compressed payload
+     */
+    private static final int COMPRESSED_HANDLER_INDEX = -1;
+
+    /**
+     * The largest payloads vanilla accepts in custom payload packets of either
+     * direction - compressed payloads may never decompress to more than that
+     */
+    private static final int MAX_SERVERBOUND_PAYLOAD_SIZE = 32767;
+    private static final int MAX_CLIENTBOUND_PAYLOAD_SIZE = 1048576;
+
+    /**
+     * Message bodies which are copied into a batch right away are
+     * written to a reused per-thread buffer instead of a fresh one
+     */
+    private static final ThreadLocal<PacketByteBuf> SCRATCH_BUFFER = ThreadLocal.withInitial(PacketByteBufs::create);
 
     private final Map<Class<?>, IndexedSerializer<?>> serializersByClass = new HashMap<>();
     final Int2ObjectMap<IndexedSerializer<?>> serializersByIndex = new Int2ObjectOpenHashMap<>();
@@ -71,6 +122,9 @@ public class OwoNetChannel {
     private final List<ChannelHandler<Record, ClientAccess>> clientHandlers = new ArrayList<>();
     private final List<ChannelHandler<Record, ServerAccess>> serverHandlers = new ArrayList<>();
 
+    private final List<DispatchPolicy> clientDispatchPolicies = new ArrayList<>();
+    private final List<DispatchPolicy> serverDispatchPolicies = new ArrayList<>();
+
     private final Reference2IntMap<Class<?>> deferredClientSerializers = new Reference2IntOpenHashMap<>();
 
     final Identifier packetId;
@@ -80,6 +134,18 @@ public class OwoNetChannel {
     private ClientHandle clientHandle = null;
     private ServerHandle serverHandle = null;
 
+    private boolean batchClientbound = false;
+    private final Map<ServerPlayerEntity, PacketByteBuf> pendingBatches = new HashMap<>();
+    private final BufferSizeHint batchSizeHint = new BufferSizeHint();
+
+    boolean deltaClientbound = false;
+    private final Map<UUID, Map<Class<?>, Record>> lastSentStates = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Record> lastReceivedStates = new ConcurrentHashMap<>();
+
+    private int compressionThreshold = -1;
+
+    private final ChannelMetrics metrics = new ChannelMetrics();
+
     /**
      * Creates a new required channel with given ID. Duplicate channel
      * IDs are not allowed - if there is a collision, the name of the
@@ -126,21 +192,68 @@ public class OwoNetChannel {
         }
 
         ServerPlayNetworking.registerGlobalReceiver(packetId, (server, player, handler, buf, responseSender) -> {
-            int handlerIndex = buf.readVarInt();
-            final Record message = serializersByIndex.get(handlerIndex).serializer.read(buf);
-            server.execute(() -> serverHandlers.get(handlerIndex).handle(message, new ServerAccess(player)));
+            final long receivedAt = System.nanoTime();
+            final var payload = decompressIfNeeded(buf, MAX_SERVERBOUND_PAYLOAD_SIZE);
+
+            int handlerIndex = payload.readVarInt();
+            final var serializer = serializersByIndex.get(handlerIndex).serializer;
+
+            final int size = payload.readableBytes();
+            final long decodeStart = System.nanoTime();
+            final Record message = serializer.read(payload);
+            final var messageMetrics = metrics.recordReceived(serializer.getRecordClass(), size, System.nanoTime() - decodeStart);
+
+            serverDispatchPolicies.get(handlerIndex).dispatch(server, ChannelMetrics.instrument(messageMetrics, receivedAt,
+                    () -> serverHandlers.get(handlerIndex).handle(message, new ServerAccess(player))));
         });
 
         if (FabricLoader.getInstance().getEnvironmentType() == EnvType.CLIENT) {
             ClientPlayNetworking.registerGlobalReceiver(packetId, (client, handler, buf, responseSender) -> {
-                int handlerIndex = buf.readVarInt();
-                final Record message = serializersByIndex.get(-handlerIndex).serializer.read(buf);
-                client.execute(() -> clientHandlers.get(handlerIndex).handle(message, new ClientAccess(handler)));
+                final long receivedAt = System.nanoTime();
+                final var payload = decompressIfNeeded(buf, MAX_CLIENTBOUND_PAYLOAD_SIZE);
+                int handlerIndex = payload.readVarInt();
+
+                if (handlerIndex == BATCH_HANDLER_INDEX) {
+                    final var access = new ClientAccess(handler);
+
+                    // messages for the game thread are collected and handled in one task
+                    final var gameThreadTasks = new ArrayList<Runnable>();
+
+                    while (payload.isReadable()) {
+                        int messageHandlerIndex = payload.readVarInt();
+                        final var messageBuffer = new PacketByteBuf(payload.readSlice(payload.readVarInt()));
+                        final var message = readClientbound(messageHandlerIndex, messageBuffer);
+
+                        final var task = ChannelMetrics.instrument(message.messageMetrics(), receivedAt,
+                                () -> clientHandlers.get(messageHandlerIndex).handle(message.message(), access));
+
+                        final var policy = clientDispatchPolicies.get(messageHandlerIndex);
+                        if (policy == DispatchPolicy.GAME_THREAD) {
+                            gameThreadTasks.add(task);
+                        } else {
+                            policy.dispatch(client, task);
+                        }
+                    }
+
+                    if (gameThreadTasks.isEmpty()) return;
+                    client.execute(() -> {
+                        for (var task : gameThreadTasks) task.run();
+                    });
+                    return;
+                }
+
+                final var message = readClientbound(handlerIndex, payload);
+                clientDispatchPolicies.get(handlerIndex).dispatch(client, ChannelMetrics.instrument(message.messageMetrics(), receivedAt,
+                        () -> clientHandlers.get(handlerIndex).handle(message.message(), new ClientAccess(handler))));
             });
+
+            ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> lastReceivedStates.clear());
         }
 
         clientHandlers.add(null);
         serverHandlers.add(null);
+        clientDispatchPolicies.add(null);
+        serverDispatchPolicies.add(null);
         REGISTERED_CHANNELS.put(id, this);
 
         if (required) {
@@ -162,19 +275,39 @@ public class OwoNetChannel {
      * @see #serverHandle(ServerWorld, BlockPos)
      * @see PacketBufSerializer#register(Class, BiConsumer, Function)
      */
-    @SuppressWarnings("unchecked")
     public <R extends Record> void registerClientbound(Class<R> messageClass, ChannelHandler<R, ClientAccess> handler) {
+        this.registerClientbound(messageClass, handler, DispatchPolicy.GAME_THREAD);
+    }
+
+    /**
+     * Registers a handler <i>on the client</i> for the specified message class,
+     * which is executed according to the given dispatch policy.
+     * This also ensures the required serializer is available. If an exception
+     * about a missing type adapter is thrown, register one
+     *
+     * @param messageClass The type of packet data to send and serialize
+     * @param handler      The handler that will receive the deserialized
+     * @param policy       The thread to execute the handler on
+     * @see #serverHandle(PlayerEntity)
+     * @see #serverHandle(MinecraftServer)
+     * @see #serverHandle(ServerWorld, BlockPos)
+     * @see PacketBufSerializer#register(Class, BiConsumer, Function)
+     */
+    @SuppressWarnings("unchecked")
+    public <R extends Record> void registerClientbound(Class<R> messageClass, ChannelHandler<R, ClientAccess> handler, DispatchPolicy policy) {
         int deferredIndex = deferredClientSerializers.removeInt(messageClass);
         if (deferredIndex != -1) {
             OwoFreezer.checkRegister("Network handlers");
 
             this.clientHandlers.set(deferredIndex, (ChannelHandler<Record, ClientAccess>) handler);
+            this.clientDispatchPolicies.set(deferredIndex, policy);
             return;
         }
 
         int index = this.clientHandlers.size();
         this.createSerializer(messageClass, index, EnvType.CLIENT);
         this.clientHandlers.add((ChannelHandler<Record, ClientAccess>) handler);
+        this.clientDispatchPolicies.add(policy);
     }
 
     /**
@@ -192,6 +325,7 @@ public class OwoNetChannel {
         int index = this.clientHandlers.size();
         this.createSerializer(messageClass, index, EnvType.CLIENT);
         this.clientHandlers.add(null);
+        this.clientDispatchPolicies.add(DispatchPolicy.GAME_THREAD);
 
         this.deferredClientSerializers.put(messageClass, index);
     }
@@ -206,11 +340,115 @@ public class OwoNetChannel {
      * @see #clientHandle()
      * @see PacketBufSerializer#register(Class, BiConsumer, Function)
      */
-    @SuppressWarnings("unchecked")
     public <R extends Record> void registerServerbound(Class<R> messageClass, ChannelHandler<R, ServerAccess> handler) {
+        this.registerServerbound(messageClass, handler, DispatchPolicy.GAME_THREAD);
+    }
+
+    /**
+     * Registers a handler <i>on the server</i> for the specified message class,
+     * which is executed according to the given dispatch policy.
+     * This also ensures the required serializer is available. If an exception
+     * about a missing type adapter is thrown, register one
+     *
+     * @param messageClass The type of packet data to send and serialize
+     * @param handler      The handler that will receive the deserialized
+     * @param policy       The thread to execute the handler on
+     * @see #clientHandle()
+     * @see PacketBufSerializer#register(Class, BiConsumer, Function)
+     */
+    @SuppressWarnings("unchecked")
+    public <R extends Record> void registerServerbound(Class<R> messageClass, ChannelHandler<R, ServerAccess> handler, DispatchPolicy policy) {
         int index = this.serverHandlers.size();
         this.createSerializer(messageClass, index, EnvType.SERVER);
         this.serverHandlers.add((ChannelHandler<Record, ServerAccess>) handler);
+        this.serverDispatchPolicies.add(policy);
+    }
+
+    /**
+     * Enables batching of clientbound messages on this channel. All messages
+     * sent to the same player during a server tick are queued and sent as
+     * a single packet at the end of the tick, where the client unpacks
+     * and handles them in the order they were sent
+     * <p>
+     * Only messages sent on the server thread are batched - those sent from
+     * other threads bypass the batch and are sent immediately
+     * <p>
+     * Clients always understand batched packets, so this only
+     * has an effect when called on the server
+     *
+     * @return This channel
+     */
+    public OwoNetChannel batchClientbound() {
+        OwoFreezer.checkRegister("Network channel settings");
+
+        if (!this.batchClientbound) {
+            this.batchClientbound = true;
+            BATCHING_CHANNELS.add(this);
+        }
+
+        return this;
+    }
+
+    /**
+     * Enables delta encoding of clientbound messages on this channel. For every player,
+     * the last message of each class sent to them is remembered - subsequent messages of the
+     * same class only transmit the components which changed, determined via {@link Objects#deepEquals(Object, Object)}.
+     * The client then reconstructs the full record from the last one it received
+     * <p>
+     * The previous messages are tracked per channel and per connection - the server forgets
+     * those of a player when they disconnect, and the client forgets all of them when it
+     * disconnects. Since the previous message is retained, <b>record components must not be
+     * mutated after a message was sent</b>. This must be called on both client and server
+     * <p>
+     * Every delta must be applied against the exact message the one before it was encoded
+     * against, so messages sent from other threads are handed to the server thread
+     * and sent from there, in the order they were submitted in
+     *
+     * @return This channel
+     */
+    public OwoNetChannel deltaEncodeClientbound() {
+        OwoFreezer.checkRegister("Network channel settings");
+
+        this.deltaClientbound = true;
+        return this;
+    }
+
+    /**
+     * Enables compression of the packets sent over this channel. Every packet
+     * whose payload is at least {@code threshold} bytes large is deflated
+     * before sending, unless that does not make it any smaller
+     * <p>
+     * Receivers only accept compressed packets on channels which enabled
+     * compression themselves, and reject them otherwise - so this must be
+     * called on both client and server, and then compresses packets in both
+     * directions. Payloads may not decompress to more than vanilla permits
+     * in a single custom payload packet
+     *
+     * @param threshold The minimum payload size in bytes to compress at
+     * @return This channel
+     */
+    public OwoNetChannel compressPayloads(int threshold) {
+        OwoFreezer.checkRegister("Network channel settings");
+        if (threshold < 0) throw new IllegalArgumentException("Compression threshold must not be negative");
+
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * @return The total amount of bytes this channel has saved
+     * by compressing payloads, since the game was started
+     * @see #compressPayloads(int)
+     */
+    public long compressionSavings() {
+        return this.metrics.compressionSavings();
+    }
+
+    /**
+     * @return The traffic and timing statistics of this channel
+     */
+    public ChannelMetrics metrics() {
+        return this.metrics;
     }
 
     public boolean canSendToPlayer(ServerPlayerEntity player) {
@@ -355,10 +593,120 @@ public class OwoNetChannel {
         }
     }
 
-    @SuppressWarnings("unchecked")
     private <R extends Record> PacketByteBuf encode(R message, EnvType target) {
-        var buffer = PacketByteBufs.create();
+        final var serializer = this.getSerializer(message, target);
+        final var buffer = serializer.sizeHint.allocate();
 
+        buffer.writeVarInt(serializer.handlerIndex(target));
+        serializer.serializer.write(buffer, message);
+
+        serializer.sizeHint.record(buffer.readableBytes());
+        return buffer;
+    }
+
+    private static PacketByteBuf scratchBuffer() {
+        var buffer = SCRATCH_BUFFER.get();
+
+        // don't hold on to the memory of one exceptionally large message forever
+        if (buffer.capacity() > MAX_BATCH_SIZE) {
+            buffer = PacketByteBufs.create();
+            SCRATCH_BUFFER.set(buffer);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ReceivedMessage readClientbound(int handlerIndex, PacketByteBuf buf) {
+        final var serializer = (RecordSerializer<Record>) this.serializersByIndex.get(-handlerIndex).serializer;
+
+        final int size = buf.readableBytes();
+        final long decodeStart = System.nanoTime();
+
+        final Record message;
+        if (this.deltaClientbound) {
+            message = serializer.readDelta(buf, this.lastReceivedStates.get(serializer.getRecordClass()));
+
+            // the reflective backend yields null if construction fails, which must not become the baseline
+            if (message != null) {
+                this.lastReceivedStates.put(serializer.getRecordClass(), message);
+            } else {
+                this.lastReceivedStates.remove(serializer.getRecordClass());
+            }
+        } else {
+            message = serializer.read(buf);
+        }
+
+        return new ReceivedMessage(message, this.metrics.recordReceived(serializer.getRecordClass(), size, System.nanoTime() - decodeStart));
+    }
+
+    private PacketByteBuf compressIfNeeded(PacketByteBuf payload) {
+        if (this.compressionThreshold < 0 || payload.readableBytes() < this.compressionThreshold) return payload;
+
+        final var compressed = PayloadCompression.compress(payload, COMPRESSED_HANDLER_INDEX);
+        if (compressed.readableBytes() >= payload.readableBytes()) return payload;
+
+        this.metrics.recordCompression(payload.readableBytes(), compressed.readableBytes());
+        return compressed;
+    }
+
+    private PacketByteBuf decompressIfNeeded(PacketByteBuf buf, int maxSize) {
+        final int start = buf.readerIndex();
+        if (buf.readVarInt() == COMPRESSED_HANDLER_INDEX) {
+            if (this.compressionThreshold < 0) {
+                throw new NetworkException("Received compressed payload on channel '" + this.packetId + "', which does not use compression");
+            }
+
+            return PayloadCompression.decompress(buf, maxSize);
+        }
+
+        buf.readerIndex(start);
+        return buf;
+    }
+
+    private void queueBatched(ServerPlayerEntity player, int handlerIndex, PacketByteBuf body) {
+        // batches are only ever touched on the server thread, which also flushes them
+        if (!player.server.isOnThread()) {
+            final var buffer = PacketByteBufs.create();
+            buffer.writeVarInt(handlerIndex);
+            buffer.writeBytes(body, body.readerIndex(), body.readableBytes());
+
+            ServerPlayNetworking.send(player, this.packetId, this.compressIfNeeded(buffer));
+            return;
+        }
+
+        var pendingBatch = this.pendingBatches.get(player);
+        if (pendingBatch != null && pendingBatch.readableBytes() + body.readableBytes() > MAX_BATCH_SIZE) {
+            this.sendBatch(player, pendingBatch);
+            this.pendingBatches.remove(player);
+        }
+
+        final var batch = this.pendingBatches.computeIfAbsent(player, p -> {
+            final var buffer = this.batchSizeHint.allocate();
+            buffer.writeVarInt(BATCH_HANDLER_INDEX);
+            return buffer;
+        });
+
+        batch.writeVarInt(handlerIndex);
+        batch.writeVarInt(body.readableBytes());
+        batch.writeBytes(body, body.readerIndex(), body.readableBytes());
+    }
+
+    private void flushBatches() {
+        if (this.pendingBatches.isEmpty()) return;
+
+        this.pendingBatches.forEach(this::sendBatch);
+        this.pendingBatches.clear();
+    }
+
+    private void sendBatch(ServerPlayerEntity player, PacketByteBuf batch) {
+        this.batchSizeHint.record(batch.readableBytes());
+        ServerPlayNetworking.send(player, this.packetId, this.compressIfNeeded(batch));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R extends Record> IndexedSerializer<R> getSerializer(R message, EnvType target) {
         final var messageClass = message.getClass();
 
         if (!this.serializersByClass.containsKey(messageClass)) {
@@ -370,10 +718,7 @@ public class OwoNetChannel {
             throw new NetworkException("Message class '" + messageClass + "' has not handler registered for target environment " + target);
         }
 
-        buffer.writeVarInt(serializer.handlerIndex(target));
-        serializer.serializer.write(buffer, message);
-
-        return buffer;
+        return serializer;
     }
 
     public class ClientHandle {
@@ -385,7 +730,10 @@ public class OwoNetChannel {
          * @see #send(Record[])
          */
         public <R extends Record> void send(R message) {
-            ClientPlayNetworking.send(OwoNetChannel.this.packetId, OwoNetChannel.this.encode(message, EnvType.SERVER));
+            final var buffer = OwoNetChannel.this.encode(message, EnvType.SERVER);
+            OwoNetChannel.this.metrics.recordSent(message.getClass(), buffer.readableBytes(), 1);
+
+            ClientPlayNetworking.send(OwoNetChannel.this.packetId, OwoNetChannel.this.compressIfNeeded(buffer));
         }
 
         /**
@@ -412,7 +760,7 @@ public class OwoNetChannel {
          * @see #send(Record[])
          */
         public <R extends Record> void send(R message) {
-            this.targets.forEach(player -> ServerPlayNetworking.send(player, OwoNetChannel.this.packetId, OwoNetChannel.this.encode(message, EnvType.CLIENT)));
+            this.sendToTargets(message);
             this.targets = null;
         }
 
@@ -425,20 +773,103 @@ public class OwoNetChannel {
          */
         @SafeVarargs
         public final <R extends Record> void send(R... messages) {
-            this.targets.forEach(player -> {
-                for (R message : messages) {
-                    ServerPlayNetworking.send(player, OwoNetChannel.this.packetId, OwoNetChannel.this.encode(message, EnvType.CLIENT));
-                }
-            });
+            for (R message : messages) this.sendToTargets(message);
             this.targets = null;
         }
+
+        /**
+         * Encodes the given message exactly once, no matter the
+         * amount of targets - every target is then sent a duplicate
+         * of the encoded buffer, which shares its contents
+         * <p>
+         * The duplicates don't retain the buffer. This is safe since it is an
+         * unpooled heap buffer which vanilla never releases - it is reclaimed
+         * by the garbage collector once every duplicate has been written
+         */
+        private <R extends Record> void sendToTargets(R message) {
+            if (this.targets.isEmpty()) {
+                // still validate the message, so missing registrations don't go unnoticed
+                OwoNetChannel.this.getSerializer(message, EnvType.CLIENT);
+                return;
+            }
+
+            if (OwoNetChannel.this.deltaClientbound) {
+                final var server = this.targets.iterator().next().server;
+                if (server.isOnThread()) {
+                    this.sendDelta(message, this.targets);
+                } else {
+                    // baselines are only ever touched on the server thread, so that updating
+                    // one and sending the delta encoded against it can't be interleaved
+                    OwoNetChannel.this.getSerializer(message, EnvType.CLIENT);
+
+                    final var targets = List.copyOf(this.targets);
+                    server.execute(() -> this.sendDelta(message, targets));
+                }
+            } else if (OwoNetChannel.this.batchClientbound) {
+                final var serializer = OwoNetChannel.this.getSerializer(message, EnvType.CLIENT);
+
+                final var body = scratchBuffer();
+                serializer.serializer.write(body, message);
+                OwoNetChannel.this.metrics.recordSent(message.getClass(), body.readableBytes(), this.targets.size());
+
+                for (var player : this.targets) {
+                    OwoNetChannel.this.queueBatched(player, serializer.handlerIndex(EnvType.CLIENT), body);
+                }
+            } else {
+                final var encoded = OwoNetChannel.this.encode(message, EnvType.CLIENT);
+                OwoNetChannel.this.metrics.recordSent(message.getClass(), encoded.readableBytes(), this.targets.size());
+
+                final var buffer = OwoNetChannel.this.compressIfNeeded(encoded);
+
+                for (var player : this.targets) {
+                    ServerPlayNetworking.send(player, OwoNetChannel.this.packetId, PacketByteBufs.duplicate(buffer));
+                }
+            }
+        }
+
+        /**
+         * Delta-encodes the given message against the last one of
+         * the same class for every target individually. Must be
+         * called on the server thread
+         */
+        @SuppressWarnings("unchecked")
+        private <R extends Record> void sendDelta(R message, Collection<ServerPlayerEntity> targets) {
+            final var serializer = OwoNetChannel.this.getSerializer(message, EnvType.CLIENT);
+            final int handlerIndex = serializer.handlerIndex(EnvType.CLIENT);
+
+            for (var player : targets) {
+                // the player may have left while this was waiting for the server thread
+                if (player.isDisconnected()) continue;
+
+                final var previous = (R) OwoNetChannel.this.lastSentStates
+                        .computeIfAbsent(player.getUuid(), uuid -> new ConcurrentHashMap<>())
+                        .put(message.getClass(), message);
+
+                if (OwoNetChannel.this.batchClientbound) {
+                    final var body = scratchBuffer();
+                    serializer.serializer.writeDelta(body, previous, message);
+                    OwoNetChannel.this.metrics.recordSent(message.getClass(), body.readableBytes(), 1);
+
+                    OwoNetChannel.this.queueBatched(player, handlerIndex, body);
+                } else {
+                    final var buffer = serializer.sizeHint.allocate();
+                    buffer.writeVarInt(handlerIndex);
+                    serializer.serializer.writeDelta(buffer, previous, message);
+                    serializer.sizeHint.record(buffer.readableBytes());
+                    OwoNetChannel.this.metrics.recordSent(message.getClass(), buffer.readableBytes(), 1);
+
+                    ServerPlayNetworking.send(player, OwoNetChannel.this.packetId, OwoNetChannel.this.compressIfNeeded(buffer));
+                }
+            }
+        }
     }
 
     public interface ChannelHandler<R extends Record, E extends EnvironmentAccess<?, ?, ?>> {
 
         /**
-         * Executed on the game thread to handle the incoming
-         * message - this can safely modify game state
+         * Executed to handle the incoming message. Unless registered with
+         * a different {@link DispatchPolicy}, this runs on the game thread
+         * and can safely modify game state
          *
          * @param message The message that was received
          * @param access  The {@link EnvironmentAccess} used to obtain references
@@ -447,6 +878,53 @@ public class OwoNetChannel {
         void handle(R message, E access);
     }
 
+    /**
+     * Decides on which thread the handler of a message is executed
+     */
+    public enum DispatchPolicy {
+        /**
+         * Run the handler on the game thread of the receiving environment,
+         * this is the default and the only policy that may safely modify game state
+         */
+        GAME_THREAD,
+
+        /**
+         * Run the handler directly on the Netty event loop the message
+         * was received on. Only suitable for cheap handlers, as this
+         * blocks all other traffic of the connection
+         */
+        NETTY_THREAD,
+
+        /**
+         * Run the handler on a shared pool of worker threads,
+         * suitable for expensive handlers that are thread-safe
+         */
+        WORKER_POOL;
+
+        private void dispatch(Executor gameThread, Runnable handler) {
+            switch (this) {
+                case GAME_THREAD -> gameThread.execute(handler);
+                case NETTY_THREAD -> handler.run();
+                case WORKER_POOL -> WorkerPool.EXECUTOR.execute(() -> {
+                    try {
+                        handler.run();
+                    } catch (Throwable e) {
+                        Owo.LOGGER.error("Network handler failed on worker thread", e);
+                    }
+                });
+            }
+        }
+    }
+
+    private record ReceivedMessage(Record message, @Nullable ChannelMetrics.MessageMetrics messageMetrics) {}
+
+    private static final class WorkerPool {
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                new ThreadFactoryBuilder().setNameFormat("owo-network-worker-%d").setDaemon(true).build()
+        );
+    }
+
     /**
      * A simple wrapper that provides access to the environment a packet
      * is being received / message is being handled in
@@ -492,6 +970,19 @@ public class OwoNetChannel {
                 channel.verify();
             }
         });
+
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            for (OwoNetChannel channel : BATCHING_CHANNELS) {
+                channel.flushBatches();
+            }
+        });
+
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            for (OwoNetChannel channel : REGISTERED_CHANNELS.values()) {
+                channel.pendingBatches.remove(handler.player);
+                channel.lastSentStates.remove(handler.player.getUuid());
+            }
+        });
     }
 
     static final class IndexedSerializer<R extends Record> {
@@ -499,6 +990,7 @@ public class OwoNetChannel {
         private int serverHandlerIndex = -1;
 
         final RecordSerializer<R> serializer;
+        final BufferSizeHint sizeHint = new BufferSizeHint();
 
         private IndexedSerializer(RecordSerializer<R> serializer) {
             this.serializer = serializer;
@@ -0,0 +1,96 @@
+package io.wispforest.owo.network;
+
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.minecraft.network.PacketByteBuf;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate-based compression of whole channel payloads, using
+ * one reusable {@link Deflater} and {@link Inflater} per thread
+ */
+final class PayloadCompression {
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private PayloadCompression() {}
+
+    /**
+     * Compresses the readable bytes of the given payload, without consuming
+     * them. The returned buffer starts with {@code marker} and the uncompressed size
+     *
+     * @param payload The payload to compress
+     * @param marker  The handler index that marks the payload as compressed
+     * @return The compressed payload
+     */
+    static PacketByteBuf compress(PacketByteBuf payload, int marker) {
+        final var deflater = DEFLATER.get();
+        final int length = payload.readableBytes();
+
+        final var compressed = PacketByteBufs.create();
+        compressed.writeVarInt(marker);
+        compressed.writeVarInt(length);
+
+        try {
+            deflater.setInput(payload.nioBuffer());
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                compressed.ensureWritable(Math.max(256, length / 4));
+
+                final int written = deflater.deflate(compressed.nioBuffer(compressed.writerIndex(), compressed.writableBytes()));
+                compressed.writerIndex(compressed.writerIndex() + written);
+            }
+        } finally {
+            deflater.reset();
+        }
+
+        return compressed;
+    }
+
+    /**
+     * Decompresses a payload produced by {@link #compress(PacketByteBuf, int)},
+     * the marker must already have been read. The declared size is only trusted
+     * as an upper bound - the returned buffer grows as data is inflated, so
+     * that a small packet can't make the receiver allocate a large buffer
+     *
+     * @param buf     The compressed payload
+     * @param maxSize The largest decompressed size to accept
+     * @return The original payload
+     */
+    static PacketByteBuf decompress(PacketByteBuf buf, int maxSize) {
+        final int length = buf.readVarInt();
+        if (length < 0 || length > maxSize) {
+            throw new NetworkException("Compressed payload size " + length + " exceeds the maximum of " + maxSize);
+        }
+
+        final var inflater = INFLATER.get();
+        final var decompressed = PacketByteBufs.create();
+
+        try {
+            inflater.setInput(buf.nioBuffer());
+
+            while (decompressed.writerIndex() < length && !inflater.finished()) {
+                final int remaining = length - decompressed.writerIndex();
+                decompressed.ensureWritable(Math.min(remaining, Math.max(256, decompressed.writerIndex())));
+
+                final int inflated = inflater.inflate(decompressed.nioBuffer(decompressed.writerIndex(), Math.min(remaining, decompressed.writableBytes())));
+                decompressed.writerIndex(decompressed.writerIndex() + inflated);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+
+            if (decompressed.writerIndex() < length) throw new NetworkException("Compressed payload ended prematurely");
+            buf.skipBytes(buf.readableBytes());
+        } catch (DataFormatException e) {
+            throw new NetworkException("Malformed compressed payload: " + e.getMessage());
+        } finally {
+            inflater.reset();
+        }
+
+        return decompressed;
+    }
+}
@@ -0,0 +1,69 @@
+package io.wispforest.owo.network.serialization;
+
+import io.wispforest.owo.util.OwoFreezer;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class-keyed registry which can safely be populated from any thread.
+ * When services are frozen, its contents are copied into an immutable
+ * identity-keyed table, which all further lookups consult first without
+ * any synchronization. Entries added after freezing, like lazily created
+ * serializers for previously unseen types, still go to the concurrent map.
+ * A registry created after services were frozen builds its table on the
+ * first lookup instead, once its owner has had a chance to populate it
+ *
+ * @param <V> The type of value stored in this registry
+ */
+final class ClassRegistry<V> {
+
+    private final Map<Class<?>, V> entries = new ConcurrentHashMap<>();
+    private volatile Reference2ObjectMap<Class<?>, V> frozen = Reference2ObjectMaps.emptyMap();
+    private volatile boolean freezeOnLookup = false;
+
+    ClassRegistry() {
+        if (!OwoFreezer.tryRegisterFreezeCallback(this::freeze)) {
+            this.freezeOnLookup = true;
+        }
+    }
+
+    @Nullable V get(Class<?> clazz) {
+        if (this.freezeOnLookup) {
+            this.freezeOnLookup = false;
+            this.freeze();
+        }
+
+        final var value = this.frozen.get(clazz);
+        return value != null ? value : this.entries.get(clazz);
+    }
+
+    /**
+     * Associates {@code value} with {@code clazz},
+     * unless any value is already associated with it
+     *
+     * @return {@code true} if {@code value} was added
+     */
+    boolean add(Class<?> clazz, V value) {
+        return this.entries.putIfAbsent(clazz, value) == null;
+    }
+
+    /**
+     * Associates {@code value} with {@code clazz}, unless
+     * some other value is already associated with it
+     *
+     * @return The value that is now associated with {@code clazz}
+     */
+    V putIfAbsent(Class<?> clazz, V value) {
+        final var existing = this.entries.putIfAbsent(clazz, value);
+        return existing != null ? existing : value;
+    }
+
+    private void freeze() {
+        this.frozen = Reference2ObjectMaps.unmodifiable(new Reference2ObjectOpenHashMap<>(this.entries));
+    }
+}
@@ -41,8 +41,11 @@ import java.util.stream.Collectors;
  */
 public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, PacketByteBuf.PacketReader<T> deserializer) {
 
-    private static final Map<Class<?>, Supplier<?>> COLLECTION_PROVIDERS = new HashMap<>();
-    private static final Map<Class<?>, PacketBufSerializer<?>> SERIALIZERS = new HashMap<>();
+    // lookups happen on netty threads as well as the game
+    // thread, so these must be safe to populate concurrently
+    private static final ClassRegistry<Supplier<?>> COLLECTION_PROVIDERS = new ClassRegistry<>();
+    private static final ClassRegistry<PacketBufSerializer<?>> SERIALIZERS = new ClassRegistry<>();
+    private static final ClassRegistry<PrimitiveSerializer<?>> PRIMITIVE_SERIALIZERS = new ClassRegistry<>();
 
     /**
      * Enables (de-)serialization for the given class
@@ -52,8 +55,9 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
      * @param <T>        The type of object to register a serializer for
      */
     public static <T> void register(Class<T> clazz, PacketBufSerializer<T> serializer) {
-        if (SERIALIZERS.containsKey(clazz)) throw new IllegalStateException("Class '" + clazz.getName() + "' already has a serializer");
-        SERIALIZERS.put(clazz, serializer);
+        if (!SERIALIZERS.add(clazz, serializer)) {
+            throw new IllegalStateException("Class '" + clazz.getName() + "' already has a serializer");
+        }
     }
 
     /**
@@ -76,6 +80,25 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
         }
     }
 
+    private static <T> void registerPrimitive(PrimitiveSerializer<T> serializer, Class<T> boxedClass) {
+        PRIMITIVE_SERIALIZERS.putIfAbsent(serializer.primitiveClass(), serializer);
+
+        final var boxedSerializer = serializer.boxed();
+        register(boxedClass, boxedSerializer);
+        register(serializer.primitiveClass(), boxedSerializer);
+    }
+
+    /**
+     * Gets the boxing-free serializer for the given primitive class
+     *
+     * @param primitiveClass The primitive class to obtain a serializer for, eg. {@code int.class}
+     * @return The respective serializer instance, or {@code null} if the given
+     * class is not a primitive type with a specialized serializer
+     */
+    public static @Nullable PrimitiveSerializer<?> getPrimitive(Class<?> primitiveClass) {
+        return PRIMITIVE_SERIALIZERS.get(primitiveClass);
+    }
+
     /**
      * Gets the serializer for the given class, using additional data from
      * generics, or throws an exception if none is registered
@@ -149,10 +172,11 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
             else
                 return null;
 
-            SERIALIZERS.put(clazz, serializer);
+            // another thread may have created the same serializer in the meantime,
+            // in which case we adopt theirs so that every lookup yields the same instance
+            serializer = (PacketBufSerializer<T>) SERIALIZERS.putIfAbsent(clazz, serializer);
         }
 
-
         return serializer;
     }
 
@@ -165,8 +189,9 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
      *                 class
      */
     public static <T> void registerCollectionProvider(Class<T> clazz, Supplier<T> provider) {
-        if (COLLECTION_PROVIDERS.containsKey(clazz)) throw new IllegalStateException("Collection class '" + clazz.getName() + "' already has a provider");
-        COLLECTION_PROVIDERS.put(clazz, provider);
+        if (!COLLECTION_PROVIDERS.add(clazz, provider)) {
+            throw new IllegalStateException("Collection class '" + clazz.getName() + "' already has a provider");
+        }
     }
 
     /**
@@ -177,12 +202,13 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
      * @return The created collection
      */
     public static <T> T createCollection(Class<? extends T> clazz) {
-        if (!COLLECTION_PROVIDERS.containsKey(clazz)) {
+        final var provider = COLLECTION_PROVIDERS.get(clazz);
+        if (provider == null) {
             throw new IllegalStateException("No collection provider registered for collection class " + clazz.getName());
         }
 
         //noinspection unchecked
-        return ((Supplier<T>) COLLECTION_PROVIDERS.get(clazz)).get();
+        return ((Supplier<T>) provider).get();
     }
 
     /**
@@ -241,6 +267,9 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
      */
     @SuppressWarnings("unchecked")
     public static PacketBufSerializer<?> createArraySerializer(Class<?> elementClass) {
+        var bulkSerializer = PrimitiveArraySerializers.forElementClass(elementClass);
+        if (bulkSerializer != null) return bulkSerializer;
+
         var elementSerializer = (PacketBufSerializer<Object>) get(elementClass);
         return new PacketBufSerializer<>((buf, t) -> {
             final int length = Array.getLength(t);
@@ -362,15 +391,14 @@ public record PacketBufSerializer<T>(PacketByteBuf.PacketWriter<T> serializer, P
         // Primitives
         // ----------
 
-        register(PacketByteBuf::writeBoolean, PacketByteBuf::readBoolean, Boolean.class, boolean.class);
-        register(PacketByteBuf::writeVarInt, PacketByteBuf::readVarInt, Integer.class, int.class);
-        register(PacketByteBuf::writeVarLong, PacketByteBuf::readVarLong, Long.class, long.class);
-        register(PacketByteBuf::writeFloat, PacketByteBuf::readFloat, Float.class, float.class);
-        register(PacketByteBuf::writeDouble, PacketByteBuf::readDouble, Double.class, double.class);
-
-        register((PacketByteBuf.PacketWriter<Byte>) PacketByteBuf::writeByte, PacketByteBuf::readByte, Byte.class, byte.class);
-        register((PacketByteBuf.PacketWriter<Short>) PacketByteBuf::writeShort, PacketByteBuf::readShort, Short.class, short.class);
-        register((PacketByteBuf.PacketWriter<Character>) PacketByteBuf::writeChar, PacketByteBuf::readChar, Character.class, char.class);
+        registerPrimitive(PrimitiveSerializer.ofBoolean(PacketByteBuf::writeBoolean, PacketByteBuf::readBoolean), Boolean.class);
+        registerPrimitive(PrimitiveSerializer.ofInt(PacketByteBuf::writeVarInt, PacketByteBuf::readVarInt), Integer.class);
+        registerPrimitive(PrimitiveSerializer.ofLong(PacketByteBuf::writeVarLong, PacketByteBuf::readVarLong), Long.class);
+        registerPrimitive(PrimitiveSerializer.ofFloat(PacketByteBuf::writeFloat, PacketByteBuf::readFloat), Float.class);
+        registerPrimitive(PrimitiveSerializer.ofDouble(PacketByteBuf::writeDouble, PacketByteBuf::readDouble), Double.class);
+        registerPrimitive(PrimitiveSerializer.ofByte(PacketByteBuf::writeByte, PacketByteBuf::readByte), Byte.class);
+        registerPrimitive(PrimitiveSerializer.ofShort(PacketByteBuf::writeShort, PacketByteBuf::readShort), Short.class);
+        registerPrimitive(PrimitiveSerializer.ofChar(PacketByteBuf::writeChar, PacketByteBuf::readChar), Character.class);
 
         register(Void.class, (packetByteBuf, unused) -> {}, packetByteBuf -> null);
 
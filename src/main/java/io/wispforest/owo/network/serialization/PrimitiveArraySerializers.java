@@ -0,0 +1,148 @@
+package io.wispforest.owo.network.serialization;
+
+import net.minecraft.network.PacketByteBuf;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Serializers for primitive arrays which copy the array contents in bulk
+ * instead of going through a per-element serializer. The {@code VAR_}
+ * variants pack every element as a VarInt/VarLong, which is compact for small
+ * values - the {@code RAW_} variants copy the array straight into the buffer's
+ * backing array, if it has one. The raw variants use big-endian byte order like
+ * {@link PacketByteBuf#writeFloat(float)}, so their output is identical to writing
+ * every element individually
+ * <p>
+ * {@link PacketBufSerializer#getGeneric(java.lang.reflect.Type)} selects
+ * {@link #BOOLEANS}, {@link #BYTES}, {@link #VAR_INTS}, {@link #VAR_LONGS}, {@link #RAW_FLOATS}
+ * and {@link #RAW_DOUBLES} for the respective array types. The raw integer variants
+ * can be used for custom serializers, where the values are known to be large
+ */
+public final class PrimitiveArraySerializers {
+
+    private PrimitiveArraySerializers() {}
+
+    public static final PacketBufSerializer<boolean[]> BOOLEANS = new PacketBufSerializer<>((buf, array) -> {
+        buf.writeVarInt(array.length);
+        for (boolean value : array) buf.writeBoolean(value);
+    }, buf -> {
+        final var array = new boolean[readLength(buf, 1)];
+        for (int i = 0; i < array.length; i++) array[i] = buf.readBoolean();
+        return array;
+    });
+
+    public static final PacketBufSerializer<byte[]> BYTES = new PacketBufSerializer<>(PacketByteBuf::writeByteArray, PacketByteBuf::readByteArray);
+
+    public static final PacketBufSerializer<int[]> VAR_INTS = new PacketBufSerializer<>(PacketByteBuf::writeIntArray, PacketByteBuf::readIntArray);
+
+    public static final PacketBufSerializer<long[]> VAR_LONGS = new PacketBufSerializer<>((buf, array) -> {
+        buf.writeVarInt(array.length);
+        for (long value : array) buf.writeVarLong(value);
+    }, buf -> {
+        final var array = new long[readLength(buf, 1)];
+        for (int i = 0; i < array.length; i++) array[i] = buf.readVarLong();
+        return array;
+    });
+
+    public static final PacketBufSerializer<int[]> RAW_INTS = new PacketBufSerializer<>((buf, array) -> {
+        buf.writeVarInt(array.length);
+
+        final var view = reserve(buf, array.length * Integer.BYTES);
+        if (view != null) {
+            view.asIntBuffer().put(array);
+        } else {
+            for (int value : array) buf.writeInt(value);
+        }
+    }, buf -> {
+        final var array = new int[readLength(buf, Integer.BYTES)];
+        consume(buf, array.length * Integer.BYTES).asIntBuffer().get(array);
+        return array;
+    });
+
+    public static final PacketBufSerializer<long[]> RAW_LONGS = new PacketBufSerializer<>((buf, array) -> {
+        buf.writeVarInt(array.length);
+
+        final var view = reserve(buf, array.length * Long.BYTES);
+        if (view != null) {
+            view.asLongBuffer().put(array);
+        } else {
+            for (long value : array) buf.writeLong(value);
+        }
+    }, buf -> {
+        final var array = new long[readLength(buf, Long.BYTES)];
+        consume(buf, array.length * Long.BYTES).asLongBuffer().get(array);
+        return array;
+    });
+
+    public static final PacketBufSerializer<float[]> RAW_FLOATS = new PacketBufSerializer<>((buf, array) -> {
+        buf.writeVarInt(array.length);
+
+        final var view = reserve(buf, array.length * Float.BYTES);
+        if (view != null) {
+            view.asFloatBuffer().put(array);
+        } else {
+            for (float value : array) buf.writeFloat(value);
+        }
+    }, buf -> {
+        final var array = new float[readLength(buf, Float.BYTES)];
+        consume(buf, array.length * Float.BYTES).asFloatBuffer().get(array);
+        return array;
+    });
+
+    public static final PacketBufSerializer<double[]> RAW_DOUBLES = new PacketBufSerializer<>((buf, array) -> {
+        buf.writeVarInt(array.length);
+
+        final var view = reserve(buf, array.length * Double.BYTES);
+        if (view != null) {
+            view.asDoubleBuffer().put(array);
+        } else {
+            for (double value : array) buf.writeDouble(value);
+        }
+    }, buf -> {
+        final var array = new double[readLength(buf, Double.BYTES)];
+        consume(buf, array.length * Double.BYTES).asDoubleBuffer().get(array);
+        return array;
+    });
+
+    static @Nullable PacketBufSerializer<?> forElementClass(Class<?> elementClass) {
+        if (elementClass == boolean.class) return BOOLEANS;
+        if (elementClass == byte.class) return BYTES;
+        if (elementClass == int.class) return VAR_INTS;
+        if (elementClass == long.class) return VAR_LONGS;
+        if (elementClass == float.class) return RAW_FLOATS;
+        if (elementClass == double.class) return RAW_DOUBLES;
+
+        return null;
+    }
+
+    /**
+     * Advances the writer index of the given buffer by {@code byteLength} and
+     * returns a big-endian view of the skipped region, or {@code null} if the buffer
+     * is not backed by an array - in which case nothing is written
+     */
+    private static @Nullable ByteBuffer reserve(PacketByteBuf buf, int byteLength) {
+        buf.ensureWritable(byteLength);
+        if (!buf.hasArray()) return null;
+
+        final var view = ByteBuffer.wrap(buf.array(), buf.arrayOffset() + buf.writerIndex(), byteLength).slice().order(ByteOrder.BIG_ENDIAN);
+        buf.writerIndex(buf.writerIndex() + byteLength);
+        return view;
+    }
+
+    private static ByteBuffer consume(PacketByteBuf buf, int byteLength) {
+        final var view = buf.nioBuffer(buf.readerIndex(), byteLength).order(ByteOrder.BIG_ENDIAN);
+        buf.skipBytes(byteLength);
+        return view;
+    }
+
+    private static int readLength(PacketByteBuf buf, int elementSize) {
+        final int length = buf.readVarInt();
+        if (length < 0 || length > buf.readableBytes() / elementSize) {
+            throw new IllegalStateException("Array length " + length + " exceeds the " + buf.readableBytes() + " readable bytes");
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,152 @@
+package io.wispforest.owo.network.serialization;
+
+import net.minecraft.network.PacketByteBuf;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * A specialization of {@link PacketBufSerializer} for one of the primitive
+ * types, which reads and writes values without boxing them. These are
+ * detected by {@link RecordSerializer} for primitive record components
+ * <p>
+ * Obtain the instance for a given primitive type via {@link PacketBufSerializer#getPrimitive(Class)}
+ *
+ * @param primitiveClass The primitive class this serializer handles, eg. {@code int.class}
+ * @param boxed          A regular serializer that boxes values and delegates to this one
+ * @param writerHandle   A handle of type {@code (PacketByteBuf, primitive)void}
+ * @param readerHandle   A handle of type {@code (PacketByteBuf)primitive}
+ * @param <T>            The boxed type of the primitive this serializer can handle
+ */
+public record PrimitiveSerializer<T>(Class<T> primitiveClass, PacketBufSerializer<T> boxed,
+                                     @ApiStatus.Internal MethodHandle writerHandle,
+                                     @ApiStatus.Internal MethodHandle readerHandle) {
+
+    public static PrimitiveSerializer<Boolean> ofBoolean(BooleanWriter writer, BooleanReader reader) {
+        return create(boolean.class, new PacketBufSerializer<>(writer::write, reader::read), writer, BooleanWriter.class, reader, BooleanReader.class);
+    }
+
+    public static PrimitiveSerializer<Byte> ofByte(ByteWriter writer, ByteReader reader) {
+        return create(byte.class, new PacketBufSerializer<>(writer::write, reader::read), writer, ByteWriter.class, reader, ByteReader.class);
+    }
+
+    public static PrimitiveSerializer<Short> ofShort(ShortWriter writer, ShortReader reader) {
+        return create(short.class, new PacketBufSerializer<>(writer::write, reader::read), writer, ShortWriter.class, reader, ShortReader.class);
+    }
+
+    public static PrimitiveSerializer<Character> ofChar(CharWriter writer, CharReader reader) {
+        return create(char.class, new PacketBufSerializer<>(writer::write, reader::read), writer, CharWriter.class, reader, CharReader.class);
+    }
+
+    public static PrimitiveSerializer<Integer> ofInt(IntWriter writer, IntReader reader) {
+        return create(int.class, new PacketBufSerializer<>(writer::write, reader::read), writer, IntWriter.class, reader, IntReader.class);
+    }
+
+    public static PrimitiveSerializer<Long> ofLong(LongWriter writer, LongReader reader) {
+        return create(long.class, new PacketBufSerializer<>(writer::write, reader::read), writer, LongWriter.class, reader, LongReader.class);
+    }
+
+    public static PrimitiveSerializer<Float> ofFloat(FloatWriter writer, FloatReader reader) {
+        return create(float.class, new PacketBufSerializer<>(writer::write, reader::read), writer, FloatWriter.class, reader, FloatReader.class);
+    }
+
+    public static PrimitiveSerializer<Double> ofDouble(DoubleWriter writer, DoubleReader reader) {
+        return create(double.class, new PacketBufSerializer<>(writer::write, reader::read), writer, DoubleWriter.class, reader, DoubleReader.class);
+    }
+
+    private static <T> PrimitiveSerializer<T> create(Class<T> primitiveClass, PacketBufSerializer<T> boxed, Object writer, Class<?> writerInterface, Object reader, Class<?> readerInterface) {
+        return new PrimitiveSerializer<>(primitiveClass, boxed,
+                bind(writer, writerInterface, "write", MethodType.methodType(void.class, PacketByteBuf.class, primitiveClass)),
+                bind(reader, readerInterface, "read", MethodType.methodType(primitiveClass, PacketByteBuf.class)));
+    }
+
+    private static MethodHandle bind(Object function, Class<?> functionInterface, String name, MethodType type) {
+        try {
+            return MethodHandles.lookup().findVirtual(functionInterface, name, type).bindTo(function);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not bind primitive serializer handle", e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface BooleanWriter {
+        void write(PacketByteBuf buf, boolean value);
+    }
+
+    @FunctionalInterface
+    public interface BooleanReader {
+        boolean read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface ByteWriter {
+        void write(PacketByteBuf buf, byte value);
+    }
+
+    @FunctionalInterface
+    public interface ByteReader {
+        byte read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface ShortWriter {
+        void write(PacketByteBuf buf, short value);
+    }
+
+    @FunctionalInterface
+    public interface ShortReader {
+        short read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface CharWriter {
+        void write(PacketByteBuf buf, char value);
+    }
+
+    @FunctionalInterface
+    public interface CharReader {
+        char read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface IntWriter {
+        void write(PacketByteBuf buf, int value);
+    }
+
+    @FunctionalInterface
+    public interface IntReader {
+        int read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface LongWriter {
+        void write(PacketByteBuf buf, long value);
+    }
+
+    @FunctionalInterface
+    public interface LongReader {
+        long read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface FloatWriter {
+        void write(PacketByteBuf buf, float value);
+    }
+
+    @FunctionalInterface
+    public interface FloatReader {
+        float read(PacketByteBuf buf);
+    }
+
+    @FunctionalInterface
+    public interface DoubleWriter {
+        void write(PacketByteBuf buf, double value);
+    }
+
+    @FunctionalInterface
+    public interface DoubleReader {
+        double read(PacketByteBuf buf);
+    }
+}
@@ -1,15 +1,18 @@
 package io.wispforest.owo.network.serialization;
 
-import com.google.common.collect.ImmutableMap;
 import io.wispforest.owo.Owo;
 import net.minecraft.network.PacketByteBuf;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.lang.reflect.RecordComponent;
+import java.util.BitSet;
+import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -21,25 +24,32 @@ import java.util.function.Function;
  * using {@link PacketBufSerializer#register(Class, BiConsumer, Function)}
  *
  * <p> To serialize an instance use {@link #write(PacketByteBuf, Record)},
- * to read it back again use {@link #read(PacketByteBuf)}
+ * to read it back again use {@link #read(PacketByteBuf)}. To only transmit the components
+ * which changed relative to a previously transmitted instance, use {@link #writeDelta(PacketByteBuf, Record, Record)}
+ * and {@link #readDelta(PacketByteBuf, Record)}
+ *
+ * <p> By default, a specialized reader and writer is generated for every record class
+ * by composing method handles of the component accessors, the canonical constructor and
+ * the component serializers. Primitive components are passed through {@link PrimitiveSerializer}s
+ * and never boxed. Should that fail, or if the {@code -Dowo.network.forceReflectiveSerializers=true}
+ * java argument is present, the serializer falls back to plain reflection
  *
  * @param <R> The type of record this serializer can handle
  */
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class RecordSerializer<R extends Record> {
 
-    private static final Map<Class<?>, RecordSerializer<?>> SERIALIZERS = new HashMap<>();
+    private static final boolean FORCE_REFLECTION = Boolean.getBoolean("owo.network.forceReflectiveSerializers");
+    private static final ClassRegistry<RecordSerializer<?>> SERIALIZERS = new ClassRegistry<>();
 
-    private final Map<Function<R, ?>, PacketBufSerializer> adapters;
     private final Class<R> recordClass;
-    private final Constructor<R> instanceCreator;
-    private final int fieldCount;
+    private final PacketBufSerializer[] adapters;
+    private final Backend<R> backend;
 
-    private RecordSerializer(Class<R> recordClass, Constructor<R> instanceCreator, ImmutableMap<Function<R, ?>, PacketBufSerializer> adapters) {
+    private RecordSerializer(Class<R> recordClass, PacketBufSerializer<?>[] adapters, Backend<R> backend) {
         this.recordClass = recordClass;
-        this.instanceCreator = instanceCreator;
         this.adapters = adapters;
-        this.fieldCount = recordClass.getRecordComponents().length;
+        this.backend = backend;
     }
 
     /**
@@ -51,25 +61,38 @@ public class RecordSerializer<R extends Record> {
      * @return The serializer for the given record type
      */
     public static <R extends Record> RecordSerializer<R> create(Class<R> recordClass) {
-        if (SERIALIZERS.containsKey(recordClass)) return (RecordSerializer<R>) SERIALIZERS.get(recordClass);
-
-        final ImmutableMap.Builder<Function<R, ?>, PacketBufSerializer> adapters = new ImmutableMap.Builder<>();
-        final Class<?>[] canonicalConstructorArgs = new Class<?>[recordClass.getRecordComponents().length];
+        final var existing = SERIALIZERS.get(recordClass);
+        if (existing != null) return (RecordSerializer<R>) existing;
 
-        for (int i = 0; i < recordClass.getRecordComponents().length; i++) {
-            var component = recordClass.getRecordComponents()[i];
+        final var components = recordClass.getRecordComponents();
+        final var serializers = new PacketBufSerializer<?>[components.length];
+        final Class<?>[] canonicalConstructorArgs = new Class<?>[components.length];
 
-            adapters.put(r -> getRecordEntry(r, component.getAccessor()), PacketBufSerializer.getGeneric(component.getGenericType()));
-            canonicalConstructorArgs[i] = component.getType();
+        for (int i = 0; i < components.length; i++) {
+            serializers[i] = PacketBufSerializer.getGeneric(components[i].getGenericType());
+            canonicalConstructorArgs[i] = components[i].getType();
         }
 
+        final Constructor<R> constructor;
         try {
-            final var serializer = new RecordSerializer<>(recordClass, recordClass.getConstructor(canonicalConstructorArgs), adapters.build());
-            SERIALIZERS.put(recordClass, serializer);
-            return serializer;
+            constructor = recordClass.getConstructor(canonicalConstructorArgs);
         } catch (NoSuchMethodException e) {
             throw new IllegalStateException("Could not locate canonical record constructor");
         }
+
+        Backend<R> backend = null;
+        if (!FORCE_REFLECTION) {
+            try {
+                backend = HandleBackend.create(constructor, components, serializers);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Owo.LOGGER.warn("Could not generate serializer for record class '{}', falling back to reflection", recordClass.getName(), e);
+            }
+        }
+
+        if (backend == null) backend = new ReflectiveBackend<>(constructor, components, serializers);
+
+        // should another thread have won the race, use its serializer instead
+        return (RecordSerializer<R>) SERIALIZERS.putIfAbsent(recordClass, new RecordSerializer<>(recordClass, serializers, backend));
     }
 
     /**
@@ -80,18 +103,7 @@ public class RecordSerializer<R extends Record> {
      * @return The deserialized record
      */
     public R read(PacketByteBuf buffer) {
-        Object[] messageContents = new Object[fieldCount];
-
-        AtomicInteger index = new AtomicInteger();
-        adapters.forEach((rFunction, typeAdapter) -> messageContents[index.getAndIncrement()] = typeAdapter.deserializer().apply(buffer));
-
-        try {
-            return instanceCreator.newInstance(messageContents);
-        } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
-            Owo.LOGGER.error("Error while deserializing record", e);
-        }
-
-        return null;
+        return this.backend.read(buffer);
     }
 
     /**
@@ -102,20 +114,281 @@ public class RecordSerializer<R extends Record> {
      * @param instance The record instance to serialize
      */
     public RecordSerializer<R> write(PacketByteBuf buffer, R instance) {
-        adapters.forEach((rFunction, typeAdapter) -> typeAdapter.serializer().accept(buffer, rFunction.apply(instance)));
+        this.backend.write(buffer, instance);
+        return this;
+    }
+
+    /**
+     * Writes a bitmask of the components in which the given instance differs from
+     * {@code previous}, followed by only those components. If {@code previous} is
+     * {@code null}, every component is written
+     *
+     * @param buffer   The buffer to write to
+     * @param previous The instance the reading side already knows about
+     * @param instance The record instance to serialize
+     * @see #readDelta(PacketByteBuf, Record)
+     */
+    public RecordSerializer<R> writeDelta(PacketByteBuf buffer, @Nullable R previous, R instance) {
+        final var changed = new BitSet(this.adapters.length);
+        for (int i = 0; i < this.adapters.length; i++) {
+            if (previous != null && Objects.deepEquals(this.backend.component(previous, i), this.backend.component(instance, i))) continue;
+            changed.set(i);
+        }
+
+        this.writeMask(buffer, changed);
+        if (changed.cardinality() == this.adapters.length) {
+            this.backend.write(buffer, instance);
+            return this;
+        }
+
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            this.adapters[i].serializer().accept(buffer, this.backend.component(instance, i));
+        }
+
         return this;
     }
 
+    /**
+     * Reads a record written by {@link #writeDelta(PacketByteBuf, Record, Record)},
+     * taking every component that was not transmitted from {@code previous}
+     *
+     * @param buffer   The buffer to read from
+     * @param previous The instance that was passed to the writing side as {@code previous}
+     * @return The deserialized record
+     */
+    public R readDelta(PacketByteBuf buffer, @Nullable R previous) {
+        final var changed = this.readMask(buffer);
+        if (changed.cardinality() == this.adapters.length) return this.backend.read(buffer);
+
+        if (previous == null) {
+            throw new IllegalStateException("Received partial record of class '" + this.recordClass.getName() + "' without a previous instance");
+        }
+
+        final var components = new Object[this.adapters.length];
+        for (int i = 0; i < this.adapters.length; i++) {
+            components[i] = changed.get(i)
+                    ? this.adapters[i].deserializer().apply(buffer)
+                    : this.backend.component(previous, i);
+        }
+
+        return this.backend.construct(components);
+    }
+
+    private void writeMask(PacketByteBuf buffer, BitSet mask) {
+        if (this.adapters.length <= Long.SIZE) {
+            buffer.writeVarLong(mask.isEmpty() ? 0 : mask.toLongArray()[0]);
+        } else {
+            buffer.writeBitSet(mask);
+        }
+    }
+
+    private BitSet readMask(PacketByteBuf buffer) {
+        return this.adapters.length <= Long.SIZE
+                ? BitSet.valueOf(new long[]{buffer.readVarLong()})
+                : buffer.readBitSet();
+    }
+
     public Class<R> getRecordClass() {
         return recordClass;
     }
 
-    private static <R extends Record> Object getRecordEntry(R instance, Method accessor) {
-        try {
-            return accessor.invoke(instance);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new IllegalStateException("Unable to get record entry", e);
+    private interface Backend<R extends Record> {
+        R read(PacketByteBuf buffer);
+
+        void write(PacketByteBuf buffer, R instance);
+
+        Object component(R instance, int index);
+
+        R construct(Object[] components);
+    }
+
+    /**
+     * Serializes records through one composed method handle per direction,
+     * which the JIT can inline all the way into the accessors, the component
+     * serializers and the canonical constructor
+     */
+    private static final class HandleBackend<R extends Record> implements Backend<R> {
+
+        private static final MethodHandle WRITER_ACCEPT;
+        private static final MethodHandle READER_APPLY;
+
+        // (PacketByteBuf)Record
+        private final MethodHandle reader;
+        // (PacketByteBuf, Record)void
+        private final MethodHandle writer;
+
+        // (Record)Object
+        private final MethodHandle[] getters;
+        // (Object[])Record
+        private final MethodHandle constructor;
+
+        private HandleBackend(MethodHandle reader, MethodHandle writer, MethodHandle[] getters, MethodHandle constructor) {
+            this.reader = reader;
+            this.writer = writer;
+            this.getters = getters;
+            this.constructor = constructor;
+        }
+
+        private static <R extends Record> HandleBackend<R> create(Constructor<R> constructor, RecordComponent[] components, PacketBufSerializer<?>[] serializers) throws ReflectiveOperationException {
+            final var lookup = MethodHandles.lookup();
+
+            var writer = MethodHandles.empty(MethodType.methodType(void.class, PacketByteBuf.class, Record.class));
+            for (int i = components.length - 1; i >= 0; i--) {
+                var componentWriter = MethodHandles.filterArguments(componentWriter(components[i].getType(), serializers[i]), 1, lookup.unreflect(components[i].getAccessor()));
+                componentWriter = componentWriter.asType(MethodType.methodType(void.class, PacketByteBuf.class, Record.class));
+
+                // void combiners run before the target, so folding back to front yields declaration order
+                writer = MethodHandles.foldArguments(writer, componentWriter);
+            }
+
+            final var getters = new MethodHandle[components.length];
+            for (int i = 0; i < components.length; i++) {
+                getters[i] = lookup.unreflect(components[i].getAccessor()).asType(MethodType.methodType(Object.class, Record.class));
+            }
+
+            var reader = lookup.unreflectConstructor(constructor);
+            reader = reader.asType(reader.type().changeReturnType(Record.class));
+
+            final var spreadConstructor = reader.asSpreader(Object[].class, components.length);
+
+            reader = MethodHandles.dropArguments(reader, components.length, PacketByteBuf.class);
+
+            // (T0, ..., Tk, PacketByteBuf)Record -> (T0, ..., Tk-1, PacketByteBuf)Record, Tk is read from the buffer
+            // the outermost fold runs first, so folding back to front reads the components in declaration order
+            for (int i = components.length - 1; i >= 0; i--) {
+                reader = MethodHandles.foldArguments(reader, i, componentReader(components[i].getType(), serializers[i]));
+            }
+
+            return new HandleBackend<>(reader, writer, getters, spreadConstructor);
+        }
+
+        // (PacketByteBuf, type)void
+        private static MethodHandle componentWriter(Class<?> type, PacketBufSerializer<?> serializer) {
+            final var primitiveSerializer = PacketBufSerializer.getPrimitive(type);
+            if (primitiveSerializer != null) return primitiveSerializer.writerHandle();
+
+            return WRITER_ACCEPT.bindTo(serializer.serializer()).asType(MethodType.methodType(void.class, PacketByteBuf.class, type));
+        }
+
+        // (PacketByteBuf)type
+        private static MethodHandle componentReader(Class<?> type, PacketBufSerializer<?> serializer) {
+            final var primitiveSerializer = PacketBufSerializer.getPrimitive(type);
+            if (primitiveSerializer != null) return primitiveSerializer.readerHandle();
+
+            return READER_APPLY.bindTo(serializer.deserializer()).asType(MethodType.methodType(type, PacketByteBuf.class));
+        }
+
+        @Override
+        public R read(PacketByteBuf buffer) {
+            try {
+                return (R) (Record) this.reader.invokeExact(buffer);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Error while deserializing record", e);
+            }
+        }
+
+        @Override
+        public void write(PacketByteBuf buffer, R instance) {
+            try {
+                this.writer.invokeExact(buffer, (Record) instance);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Error while serializing record", e);
+            }
+        }
+
+        @Override
+        public Object component(R instance, int index) {
+            try {
+                return this.getters[index].invokeExact((Record) instance);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to get record entry", e);
+            }
+        }
+
+        @Override
+        public R construct(Object[] components) {
+            try {
+                return (R) (Record) this.constructor.invokeExact(components);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Error while deserializing record", e);
+            }
+        }
+
+        static {
+            try {
+                final var lookup = MethodHandles.lookup();
+                WRITER_ACCEPT = lookup.findVirtual(BiConsumer.class, "accept", MethodType.methodType(void.class, Object.class, Object.class));
+                READER_APPLY = lookup.findVirtual(Function.class, "apply", MethodType.methodType(Object.class, Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
         }
     }
-}
 
+    private static final class ReflectiveBackend<R extends Record> implements Backend<R> {
+
+        private final Constructor<R> instanceCreator;
+        private final Method[] accessors;
+        private final PacketBufSerializer[] adapters;
+
+        private ReflectiveBackend(Constructor<R> instanceCreator, RecordComponent[] components, PacketBufSerializer<?>[] adapters) {
+            this.instanceCreator = instanceCreator;
+            this.adapters = adapters;
+
+            this.accessors = new Method[components.length];
+            for (int i = 0; i < components.length; i++) {
+                this.accessors[i] = components[i].getAccessor();
+            }
+        }
+
+        @Override
+        public R read(PacketByteBuf buffer) {
+            Object[] messageContents = new Object[this.adapters.length];
+
+            for (int i = 0; i < this.adapters.length; i++) {
+                messageContents[i] = this.adapters[i].deserializer().apply(buffer);
+            }
+
+            return this.construct(messageContents);
+        }
+
+        @Override
+        public Object component(R instance, int index) {
+            return getRecordEntry(instance, this.accessors[index]);
+        }
+
+        @Override
+        public R construct(Object[] components) {
+            try {
+                return instanceCreator.newInstance(components);
+            } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
+                Owo.LOGGER.error("Error while deserializing record", e);
+            }
+
+            return null;
+        }
+
+        @Override
+        public void write(PacketByteBuf buffer, R instance) {
+            for (int i = 0; i < this.adapters.length; i++) {
+                this.adapters[i].serializer().accept(buffer, getRecordEntry(instance, this.accessors[i]));
+            }
+        }
+
+        private static <R extends Record> Object getRecordEntry(R instance, Method accessor) {
+            try {
+                return accessor.invoke(instance);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Unable to get record entry", e);
+            }
+        }
+    }
+}
@@ -23,7 +23,9 @@ import org.jetbrains.annotations.Nullable;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 /**
@@ -41,43 +43,97 @@ public class OfflineAdvancementLookup {
     private static final Gson GSON = (new GsonBuilder()).registerTypeAdapter(AdvancementProgress.class, new AdvancementProgress.Serializer()).registerTypeAdapter(Identifier.class, new Identifier.Serializer()).setPrettyPrinting().create();
     private static final TypeToken<Map<Identifier, AdvancementProgress>> JSON_TYPE = new TypeToken<>() {};
 
+    /**
+     * Whether outdated advancement data should be rewritten at the
+     * current version after it was read, so that later reads don't
+     * need to run it through the data fixer again
+     */
+    private static final boolean UPGRADE_IN_PLACE = Boolean.getBoolean("owo.offline.upgradeInPlace");
+
+    private static final WriteBehindQueue<JsonElement> WRITES = new WriteBehindQueue<>("advancements", OfflineAdvancementLookup::write);
+    private static final OfflineDataCache<JsonElement> CACHE = new OfflineDataCache<>();
+
     /**
      * Saves the given advancement state
      * for the given player to disk
+     * <p>
+     * The state is written on the calling thread and replaces any write
+     * scheduled through {@link #putAsync(UUID, Map)} that has not begun yet.
+     * This only ever waits for a write of the same player already in progress
      *
      * @param player The player to modify
      * @param map    The advancement state to save
      */
     public static void put(UUID player, Map<Identifier, AdvancementProgress> map) {
         DataSavedEvents.ADVANCEMENTS.invoker().onSaved(player, map);
+        WRITES.writeNow(Owo.currentServer().getSavePath(WorldSavePath.ADVANCEMENTS), player, serialize(map));
+    }
 
-        try {
-            Path advancementsPath = Owo.currentServer().getSavePath(WorldSavePath.ADVANCEMENTS);
-            Path advancementPath = advancementsPath.resolve(player.toString() + ".json");
-            JsonElement savedElement = GSON.toJsonTree(map);
-            savedElement.getAsJsonObject().addProperty("DataVersion", SharedConstants.getGameVersion().getSaveVersion().getId());
+    /**
+     * Schedules the given advancement state to be saved for the given player on
+     * a background thread. Should the same player be saved again before the
+     * write began, only the newer state is written. Until the state
+     * is written, {@link #get(UUID)} returns the scheduled state
+     *
+     * @param player The player to modify
+     * @param map    The advancement state to save, which is serialized before this method returns
+     * @return A future which completes once the state is written
+     * @see #flush()
+     */
+    public static CompletableFuture<Void> putAsync(UUID player, Map<Identifier, AdvancementProgress> map) {
+        DataSavedEvents.ADVANCEMENTS.invoker().onSaved(player, map);
+        return WRITES.enqueue(Owo.currentServer().getSavePath(WorldSavePath.ADVANCEMENTS), player, serialize(map));
+    }
 
-            try (OutputStream os = Files.newOutputStream(advancementPath);
+    private static JsonElement serialize(Map<Identifier, AdvancementProgress> map) {
+        JsonElement savedElement = GSON.toJsonTree(map);
+        savedElement.getAsJsonObject().addProperty("DataVersion", SharedConstants.getGameVersion().getSaveVersion().getId());
+        return savedElement;
+    }
+
+    /**
+     * @return A future which completes once every write scheduled
+     * through {@link #putAsync(UUID, Map)} up to this point has finished
+     */
+    public static CompletableFuture<Void> flush() {
+        return WRITES.flush();
+    }
+
+    private static void write(Path advancementsPath, UUID player, JsonElement savedElement) throws IOException {
+        Path advancementPath = advancementsPath.resolve(player.toString() + ".json");
+        Path tempPath = Files.createTempFile(advancementsPath, player + "-", ".json");
+
+        try {
+            try (OutputStream os = Files.newOutputStream(tempPath);
                  OutputStreamWriter osWriter = new OutputStreamWriter(os, Charsets.UTF_8.newEncoder())) {
                 GSON.toJson(savedElement, osWriter);
             }
 
-        } catch (IOException e) {
-            Owo.LOGGER.error("Couldn't save advancements of offline player {}", player, e);
-            throw new RuntimeException(e);
+            // never leave a partially written file behind
+            Files.move(tempPath, advancementPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
         }
+
+        // the modification time might not have changed on coarse file systems
+        CACHE.invalidate(player);
     }
 
 
     /**
      * Loads the advancement state
      * of the given player from disk
+     * <p>
+     * Recently loaded states are cached for as long as the player's file does not change
      *
      * @param player The player to query
      * @return The saved advancement data, or {@code null} if none is saved
      */
     public static @Nullable Map<Identifier, AdvancementProgress> get(UUID player) {
         try {
+            final var pending = WRITES.pending(player);
+            if (pending != null) return deserialize(fix(new Dynamic<>(JsonOps.INSTANCE, pending.deepCopy())));
+
             Path advancementsPath = Owo.currentServer().getSavePath(WorldSavePath.ADVANCEMENTS);
 
             if (!Files.exists(advancementsPath))
@@ -88,6 +144,11 @@ public class OfflineAdvancementLookup {
             if (!Files.exists(advancementFile))
                 return null;
 
+            long lastModified = Files.getLastModifiedTime(advancementFile).toMillis();
+
+            final var cached = CACHE.get(player, lastModified);
+            if (cached != null) return deserialize(cached);
+
             Dynamic<JsonElement> dynamic;
             try (InputStream s = Files.newInputStream(advancementFile);
                  InputStreamReader streamReader = new InputStreamReader(s);
@@ -95,31 +156,62 @@ public class OfflineAdvancementLookup {
                 reader.setLenient(false);
                 dynamic = new Dynamic<>(JsonOps.INSTANCE, Streams.parse(reader));
             }
-            if (dynamic.get("DataVersion").asNumber().result().isEmpty()) {
-                dynamic = dynamic.set("DataVersion", dynamic.createInt(1343));
-            }
 
-            dynamic = Schemas.getFixer().update(DataFixTypes.ADVANCEMENTS.getTypeReference(), dynamic, dynamic.get("DataVersion").asInt(0), SharedConstants.getGameVersion().getSaveVersion().getId());
-            dynamic = dynamic.remove("DataVersion");
+            final boolean outdated = dataVersion(dynamic) < currentDataVersion();
 
-            Map<Identifier, AdvancementProgress> parsedMap = GSON.getAdapter(JSON_TYPE).fromJsonTree(dynamic.getValue());
-            for (Map.Entry<Identifier, AdvancementProgress> entry : parsedMap.entrySet()) {
-                if (((AdvancementProgressAccessor) entry.getValue()).getRequirements().length == 0) {
-                    Advancement adv = Owo.currentServer().getAdvancementLoader().get(entry.getKey());
+            final var fixed = fix(dynamic);
+            CACHE.put(player, lastModified, fixed);
 
-                    if (adv != null) {
-                        ((AdvancementProgressAccessor) entry.getValue()).setRequirements(adv.getRequirements());
-                    }
-                }
+            if (UPGRADE_IN_PLACE && outdated) {
+                final var upgraded = fixed.deepCopy();
+                upgraded.getAsJsonObject().addProperty("DataVersion", currentDataVersion());
+                WRITES.enqueueIfUnchanged(advancementsPath, player, upgraded, advancementFile, lastModified);
             }
 
-            return parsedMap;
+            return deserialize(fixed);
         } catch (IOException e) {
             Owo.LOGGER.error("Couldn't get advancements for offline player {}", player, e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Runs the given data through the data fixer, unless it already is at the current version
+     */
+    private static JsonElement fix(Dynamic<JsonElement> dynamic) {
+        final int dataVersion = dataVersion(dynamic), currentVersion = currentDataVersion();
+
+        if (dataVersion < currentVersion) {
+            dynamic = Schemas.getFixer().update(DataFixTypes.ADVANCEMENTS.getTypeReference(), dynamic, dataVersion, currentVersion);
+        }
+
+        return dynamic.remove("DataVersion").getValue();
+    }
+
+    private static int dataVersion(Dynamic<JsonElement> dynamic) {
+        // files without a version were written before 1.13
+        return dynamic.get("DataVersion").asInt(1343);
+    }
+
+    private static int currentDataVersion() {
+        return SharedConstants.getGameVersion().getSaveVersion().getId();
+    }
+
+    private static Map<Identifier, AdvancementProgress> deserialize(JsonElement fixed) {
+        Map<Identifier, AdvancementProgress> parsedMap = GSON.getAdapter(JSON_TYPE).fromJsonTree(fixed);
+        for (Map.Entry<Identifier, AdvancementProgress> entry : parsedMap.entrySet()) {
+            if (((AdvancementProgressAccessor) entry.getValue()).getRequirements().length == 0) {
+                Advancement adv = Owo.currentServer().getAdvancementLoader().get(entry.getKey());
+
+                if (adv != null) {
+                    ((AdvancementProgressAccessor) entry.getValue()).setRequirements(adv.getRequirements());
+                }
+            }
+        }
+
+        return parsedMap;
+    }
+
     /**
      * Edits the saved advancement state of the given player
      * with the given editing function
@@ -171,4 +263,8 @@ public class OfflineAdvancementLookup {
 
         return list;
     }
+
+    static {
+        DataSavedEvents.ADVANCEMENTS.register((player, newMap) -> CACHE.invalidate(player));
+    }
 }
@@ -0,0 +1,64 @@
+package io.wispforest.owo.offline;
+
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A size-bounded, least-recently-used cache of parsed offline player data.
+ * Every entry remembers the modification time of the file it was read from
+ * and is only returned while the file still has that same modification time,
+ * so that external changes to the file are picked up
+ * <p>
+ * Entries are additionally dropped whenever their player joins,
+ * since the data will change while they are online
+ *
+ * @param <T> The type of data this cache holds
+ */
+final class OfflineDataCache<T> {
+
+    private static final int CAPACITY = Integer.getInteger("owo.offline.cacheSize", 256);
+
+    private final Map<UUID, Entry<T>> entries = new LinkedHashMap<>(16, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Entry<T>> eldest) {
+            return this.size() > CAPACITY;
+        }
+    };
+
+    OfflineDataCache() {
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> this.invalidate(handler.player.getUuid()));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> this.clear());
+    }
+
+    /**
+     * @return The cached data of the given player, or {@code null} if there is
+     * none or if it was read from a version of the file other than {@code lastModified}
+     */
+    synchronized @Nullable T get(UUID player, long lastModified) {
+        final var entry = this.entries.get(player);
+        return entry != null && entry.lastModified == lastModified ? entry.data : null;
+    }
+
+    /**
+     * @param data The data to cache, which must not be modified afterwards
+     */
+    synchronized void put(UUID player, long lastModified, T data) {
+        if (CAPACITY <= 0) return;
+        this.entries.put(player, new Entry<>(lastModified, data));
+    }
+
+    synchronized void invalidate(UUID player) {
+        this.entries.remove(player);
+    }
+
+    synchronized void clear() {
+        this.entries.clear();
+    }
+
+    private record Entry<T>(long lastModified, T data) {}
+}
@@ -1,21 +1,32 @@
 package io.wispforest.owo.offline;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.wispforest.owo.Owo;
+import net.minecraft.SharedConstants;
 import net.minecraft.datafixer.DataFixTypes;
 import net.minecraft.datafixer.Schemas;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtHelper;
+import net.minecraft.nbt.NbtInt;
 import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.scanner.NbtScanQuery;
+import net.minecraft.nbt.scanner.SelectiveNbtCollector;
 import net.minecraft.util.Util;
 import net.minecraft.util.WorldSavePath;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Allows retrieving and editing the saved
@@ -27,44 +38,97 @@ import java.util.function.Function;
  */
 public final class OfflineDataLookup {
 
+    /**
+     * Whether outdated playerdata should be rewritten at the current
+     * version after it was read, so that later reads don't need to
+     * run it through the data fixer again
+     */
+    private static final boolean UPGRADE_IN_PLACE = Boolean.getBoolean("owo.offline.upgradeInPlace");
+
+    private static final int SCAN_PARALLELISM = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private static final ExecutorService SCAN_EXECUTOR = Executors.newFixedThreadPool(SCAN_PARALLELISM,
+            new ThreadFactoryBuilder().setNameFormat("owo-offline-scan-%d").setDaemon(true).build());
+
+    private static final WriteBehindQueue<NbtCompound> WRITES = new WriteBehindQueue<>("player data", OfflineDataLookup::write);
+    private static final OfflineDataCache<NbtCompound> CACHE = new OfflineDataCache<>();
+
     private OfflineDataLookup() {}
 
     /**
      * Saves the given NBT tag
      * for the given player to disk
+     * <p>
+     * The data is written on the calling thread and replaces any write
+     * scheduled through {@link #putAsync(UUID, NbtCompound)} that has not begun yet.
+     * This only ever waits for a write of the same player already in progress
      *
      * @param player The player to modify
      * @param nbt    The data to save
      */
     public static void put(UUID player, NbtCompound nbt) {
         DataSavedEvents.PLAYER_DATA.invoker().onSaved(player, nbt);
+        WRITES.writeNow(Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA), player, nbt);
+    }
 
-        try {
-            File savedPlayersPath = Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA).toFile();
-            File file = File.createTempFile(player.toString() + "-", ".dat", savedPlayersPath);
-            NbtIo.writeCompressed(nbt, file);
-            File newDataFile = new File(savedPlayersPath, player + ".dat");
-            File oldDataFile = new File(savedPlayersPath, player + ".dat_old");
-            Util.backupAndReplace(newDataFile, file, oldDataFile);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Schedules the given NBT tag to be saved for the given player on a
+     * background thread. Should the same player be saved again before the
+     * write began, only the newer data is written. Until the data
+     * is written, {@link #get(UUID)} returns the scheduled data
+     *
+     * @param player The player to modify
+     * @param nbt    The data to save, which is copied before this method returns
+     * @return A future which completes once the data is written
+     * @see #flush()
+     */
+    public static CompletableFuture<Void> putAsync(UUID player, NbtCompound nbt) {
+        DataSavedEvents.PLAYER_DATA.invoker().onSaved(player, nbt);
+        return WRITES.enqueue(Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA), player, nbt.copy());
+    }
+
+    /**
+     * @return A future which completes once every write scheduled
+     * through {@link #putAsync(UUID, NbtCompound)} up to this point has finished
+     */
+    public static CompletableFuture<Void> flush() {
+        return WRITES.flush();
+    }
+
+    private static void write(Path savedPlayersPath, UUID player, NbtCompound nbt) throws IOException {
+        File file = File.createTempFile(player.toString() + "-", ".dat", savedPlayersPath.toFile());
+        NbtIo.writeCompressed(nbt, file);
+        File newDataFile = savedPlayersPath.resolve(player + ".dat").toFile();
+        File oldDataFile = savedPlayersPath.resolve(player + ".dat_old").toFile();
+        Util.backupAndReplace(newDataFile, file, oldDataFile);
+
+        // the modification time might not have changed on coarse file systems
+        CACHE.invalidate(player);
     }
 
     /**
      * Loads the playerdata
      * of the given player from disk
+     * <p>
+     * Recently loaded data is cached for as long as the player's file does not change
      *
      * @param player The player to query
      * @return The saved playerdata, or {@code null} if none is saved
      */
     public static @Nullable NbtCompound get(UUID player) {
+        final var pending = WRITES.pending(player);
+        if (pending != null) return pending.copy();
+
         try {
             Path savedPlayersPath = Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA);
             Path savedDataPath = savedPlayersPath.resolve(player.toString() + ".dat");
-            NbtCompound rawNbt = NbtIo.readCompressed(savedDataPath.toFile());
-            int dataVersion = rawNbt.contains("DataVersion", 3) ? rawNbt.getInt("DataVersion") : -1;
-            return NbtHelper.update(Schemas.getFixer(), DataFixTypes.PLAYER, rawNbt, dataVersion);
+            long lastModified = Files.getLastModifiedTime(savedDataPath).toMillis();
+
+            final var cached = CACHE.get(player, lastModified);
+            if (cached != null) return cached.copy();
+
+            final var nbt = readUpgrading(savedPlayersPath, player, lastModified);
+            CACHE.put(player, lastModified, nbt.copy());
+            return nbt;
         } catch (IOException e) {
             Owo.LOGGER.error("Couldn't get player data for offline player {}", player, e);
             return null;
@@ -82,12 +146,143 @@ public final class OfflineDataLookup {
         put(player, editor.apply(get(player)));
     }
 
+    /**
+     * Loads the playerdata of every player that has saved playerdata, in parallel
+     * on a small pool of worker threads. Results are delivered to {@code consumer}
+     * as soon as they are read, <b>on the worker threads</b> - the consumer must
+     * thus be thread-safe and must not interact with the world
+     * <p>
+     * If any queries are given, only the elements they select are read and all other
+     * subtrees of the data are skipped without being parsed, which makes scanning
+     * large amounts of players for a few specific values considerably cheaper
+     *
+     * @param consumer The consumer to deliver each player's data to
+     * @param filter   The elements to read, or nothing to read the entire data
+     * @return A future which completes once every player has been scanned. It completes
+     * exceptionally should the consumer throw, and cancelling it aborts the scan
+     */
+    public static CompletableFuture<Void> scan(BiConsumer<UUID, NbtCompound> consumer, NbtScanQuery... filter) {
+        return scan(Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA), (player, file) -> true, consumer, filter);
+    }
+
+    /**
+     * Like {@link #scan(BiConsumer, NbtScanQuery...)}, but only
+     * reads the files of players accepted by {@code playerFilter}
+     *
+     * @param playerFilter The filter which decides whether to read a player's file,
+     *                     called with every saved player on a worker thread
+     */
+    static CompletableFuture<Void> scan(Path savedPlayersPath, BiPredicate<UUID, Path> playerFilter, BiConsumer<UUID, NbtCompound> consumer, NbtScanQuery... filter) {
+        final var result = new CompletableFuture<Void>();
+        SCAN_EXECUTOR.execute(() -> {
+            try {
+                final var players = new ConcurrentLinkedQueue<UUID>();
+                for (var player : listPlayers(savedPlayersPath)) {
+                    if (playerFilter.test(player, savedPlayersPath.resolve(player + ".dat"))) players.add(player);
+                }
+
+                final var workers = new CompletableFuture<?>[SCAN_PARALLELISM];
+                for (int i = 0; i < workers.length; i++) {
+                    workers[i] = CompletableFuture.runAsync(() -> {
+                        UUID player;
+                        while (!result.isDone() && (player = players.poll()) != null) {
+                            final var nbt = scanPlayer(savedPlayersPath, player, filter);
+                            if (nbt != null) consumer.accept(player, nbt);
+                        }
+                    }, SCAN_EXECUTOR).whenComplete((unused, throwable) -> {
+                        // fail early so that the other workers stop as well
+                        if (throwable != null) result.completeExceptionally(throwable);
+                    });
+                }
+
+                CompletableFuture.allOf(workers).whenComplete((unused, throwable) -> {
+                    if (throwable == null) {
+                        result.complete(null);
+                    } else {
+                        result.completeExceptionally(throwable);
+                    }
+                });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    private static @Nullable NbtCompound scanPlayer(Path savedPlayersPath, UUID player, NbtScanQuery[] filter) {
+        // like get, prefer data that has not reached the disk yet
+        final var pending = WRITES.pending(player);
+        if (pending != null) return pending.copy();
+
+        final var file = savedPlayersPath.resolve(player + ".dat");
+
+        try {
+            if (filter.length == 0) return readUpgrading(savedPlayersPath, player, Files.getLastModifiedTime(file).toMillis());
+
+            // the fixer needs to know which version it is upgrading from
+            final var queries = Arrays.copyOf(filter, filter.length + 1);
+            queries[filter.length] = new NbtScanQuery(NbtInt.TYPE, "DataVersion");
+
+            final var collector = new SelectiveNbtCollector(queries);
+            try (var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+                NbtIo.scan(input, collector);
+            }
+
+            return collector.getRoot() instanceof NbtCompound compound ? update(compound) : null;
+        } catch (IOException e) {
+            Owo.LOGGER.error("Couldn't scan player data file {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param lastModified The modification time of the player's file, taken before reading it
+     */
+    private static NbtCompound readUpgrading(Path savedPlayersPath, UUID player, long lastModified) throws IOException {
+        final var file = savedPlayersPath.resolve(player + ".dat");
+        final var rawNbt = NbtIo.readCompressed(file.toFile());
+        final boolean outdated = dataVersion(rawNbt) < currentDataVersion();
+
+        final var nbt = update(rawNbt);
+        if (UPGRADE_IN_PLACE && outdated) WRITES.enqueueIfUnchanged(savedPlayersPath, player, nbt.copy(), file, lastModified);
+
+        return nbt;
+    }
+
+    /**
+     * Runs the given data through the data fixer, unless it already is at the current
+     * version. Updated data is tagged with the current version, so that saving it back
+     * doesn't cause it to be fixed again the next time it is read
+     *
+     * @return The up-to-date data
+     */
+    private static NbtCompound update(NbtCompound rawNbt) {
+        final int dataVersion = dataVersion(rawNbt), currentVersion = currentDataVersion();
+        if (dataVersion >= currentVersion) return rawNbt;
+
+        final var updated = NbtHelper.update(Schemas.getFixer(), DataFixTypes.PLAYER, rawNbt, dataVersion);
+        updated.putInt("DataVersion", currentVersion);
+        return updated;
+    }
+
+    private static int dataVersion(NbtCompound nbt) {
+        return nbt.contains("DataVersion", 3) ? nbt.getInt("DataVersion") : -1;
+    }
+
+    private static int currentDataVersion() {
+        return SharedConstants.getGameVersion().getSaveVersion().getId();
+    }
+
     /**
      * @return The UUID of every player that has saved playerdata
      */
     public static List<UUID> savedPlayers() {
+        return listPlayers(Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA));
+    }
+
+    private static List<UUID> listPlayers(Path savedPlayersPath) {
         List<UUID> list = new ArrayList<>();
-        Path savedPlayersPath = Owo.currentServer().getSavePath(WorldSavePath.PLAYERDATA);
 
         if (!Files.isDirectory(savedPlayersPath))
             return Collections.emptyList();
@@ -117,4 +312,8 @@ public final class OfflineDataLookup {
 
         return list;
     }
+
+    static {
+        DataSavedEvents.PLAYER_DATA.register((player, newTag) -> CACHE.invalidate(player));
+    }
 }
@@ -0,0 +1,416 @@
+package io.wispforest.owo.offline;
+
+import io.wispforest.owo.Owo;
+import io.wispforest.owo.nbt.NbtKey;
+import io.wispforest.owo.util.OwoFreezer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.minecraft.nbt.*;
+import net.minecraft.nbt.scanner.NbtScanQuery;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.WorldSavePath;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A persistent secondary index over the saved playerdata of all players,
+ * which maps <i>terms</i> extracted from each player's data - like the IDs of
+ * the items in their inventory - to the players whose data contains them.
+ * This allows finding every player with some property without reading
+ * all playerdata files through {@link OfflineDataLookup}
+ * <p>
+ * Indices must be created during mod initialization, via {@link #register(Identifier, Function, NbtScanQuery...)}
+ * or one of the convenience methods. While a server is running, every index is kept up-to-date
+ * through {@link DataSavedEvents#PLAYER_DATA}, and it is stored in the {@code owo_offline_index}
+ * directory of the world when the server stops. On the next start, only the playerdata files
+ * which changed since the index was last loaded are read again - the first start with a new
+ * index reads all of them, on a background thread. All indices share a single pass over the
+ * playerdata files. Queries made before that is done complete once it is
+ */
+public final class OfflinePlayerIndex {
+
+    private static final Map<Identifier, OfflinePlayerIndex> INDICES = new HashMap<>();
+    private static final int FORMAT_VERSION = 1;
+
+    private static @Nullable CompletableFuture<Void> CURRENT_SCAN = null;
+
+    private final Identifier id;
+    private final Function<NbtCompound, Collection<String>> extractor;
+    private final NbtScanQuery[] requiredElements;
+
+    private final Map<UUID, Set<String>> termsByPlayer = new HashMap<>();
+    private final Map<String, Set<UUID>> playersByTerm = new HashMap<>();
+
+    // players whose data was saved while the index was loading, which the load must not overwrite
+    private final Set<UUID> savedDuringLoad = new HashSet<>();
+
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    // the time the load of the index started, from which playerdata files must be read again
+    private long scanStartedAt = Long.MIN_VALUE;
+
+    // incremented whenever the index is unloaded, so that a cancelled load can't add stale entries
+    private int generation = 0;
+
+    private OfflinePlayerIndex(Identifier id, Function<NbtCompound, Collection<String>> extractor, NbtScanQuery[] requiredElements) {
+        this.id = id;
+        this.extractor = extractor;
+        this.requiredElements = requiredElements;
+    }
+
+    /**
+     * Creates a new index
+     * <p>
+     * The extractor is invoked on the threads which read playerdata files in
+     * parallel, as well as on the server thread whenever playerdata is saved,
+     * so it must be thread-safe - ideally, it only reads the data it is passed
+     *
+     * @param id               The ID of the index, which determines where it is stored
+     * @param extractor        The function which extracts the terms to index from a player's data
+     * @param requiredElements The elements of the playerdata the extractor reads, so that all others
+     *                         can be skipped when reading playerdata files. If no elements are given,
+     *                         the extractor is always passed the entire data
+     * @return The created index
+     */
+    public static OfflinePlayerIndex register(Identifier id, Function<NbtCompound, Collection<String>> extractor, NbtScanQuery... requiredElements) {
+        OwoFreezer.checkRegister("Offline player indices");
+
+        if (INDICES.containsKey(id)) throw new IllegalStateException("Offline player index with id '" + id + "' was already registered");
+
+        final var index = new OfflinePlayerIndex(id, extractor, requiredElements);
+        INDICES.put(id, index);
+        return index;
+    }
+
+    /**
+     * Creates a new index over the values of the given key. To query
+     * numeric values by range, use {@link #players(Predicate)} and parse
+     * the terms, for instance {@code term -> Integer.parseInt(term) > 100}
+     *
+     * @param id     The ID of the index, which determines where it is stored
+     * @param key    The key whose value to index
+     * @param toTerm The function which converts a value of the key to its term
+     * @return The created index
+     */
+    public static <T> OfflinePlayerIndex ofKey(Identifier id, NbtKey<T> key, Function<T, String> toTerm) {
+        return register(id, nbt -> nbt.has(key) ? List.of(toTerm.apply(nbt.get(key))) : List.of(),
+                new NbtScanQuery(NbtTypes.byId(key.nbtType()), key.key()));
+    }
+
+    /**
+     * Creates a new index over the IDs of all items in
+     * the inventories and ender chests of players
+     *
+     * @param id The ID of the index, which determines where it is stored
+     * @return The created index
+     */
+    public static OfflinePlayerIndex inventoryItems(Identifier id) {
+        return register(id, nbt -> {
+            final var items = new HashSet<String>();
+
+            for (var inventory : List.of("Inventory", "EnderItems")) {
+                for (var stack : nbt.getList(inventory, NbtElement.COMPOUND_TYPE)) {
+                    items.add(((NbtCompound) stack).getString("id"));
+                }
+            }
+
+            return items;
+        }, new NbtScanQuery(NbtList.TYPE, "Inventory"), new NbtScanQuery(NbtList.TYPE, "EnderItems"));
+    }
+
+    /**
+     * Finds all players whose data contains the given term
+     *
+     * @param term The term to look for
+     * @return A future which completes with the UUIDs of all matching players
+     * once this index has been loaded for the current server
+     */
+    public CompletableFuture<Set<UUID>> players(String term) {
+        return this.ready.thenApply(unused -> {
+            synchronized (this) {
+                return Set.copyOf(this.playersByTerm.getOrDefault(term, Set.of()));
+            }
+        });
+    }
+
+    /**
+     * Finds all players whose data contains at least one term
+     * matching the given predicate. This only tests each
+     * distinct term once, regardless of the amount of players
+     *
+     * @param termPredicate The predicate to match terms against
+     * @return A future which completes with the UUIDs of all matching players
+     * once this index has been loaded for the current server
+     */
+    public CompletableFuture<Set<UUID>> players(Predicate<String> termPredicate) {
+        return this.ready.thenApply(unused -> {
+            synchronized (this) {
+                final var players = new HashSet<UUID>();
+                this.playersByTerm.forEach((term, termPlayers) -> {
+                    if (termPredicate.test(term)) players.addAll(termPlayers);
+                });
+
+                return Set.copyOf(players);
+            }
+        });
+    }
+
+    /**
+     * @param player The player to query
+     * @return A future which completes with the terms of the given
+     * player once this index has been loaded for the current server
+     */
+    public CompletableFuture<Set<String>> terms(UUID player) {
+        return this.ready.thenApply(unused -> {
+            synchronized (this) {
+                return Set.copyOf(this.termsByPlayer.getOrDefault(player, Set.of()));
+            }
+        });
+    }
+
+    public Identifier id() {
+        return this.id;
+    }
+
+    private static void loadAll(MinecraftServer server) {
+        if (INDICES.isEmpty()) return;
+
+        // files changed from here on are read again on the next start, even
+        // those which changed without a save event being fired for them
+        final long scanStartedAt = System.currentTimeMillis();
+
+        final var loads = new ArrayList<Load>();
+        for (var index : INDICES.values()) loads.add(index.beginLoad(server, scanStartedAt));
+
+        long oldestIndexedAt = Long.MAX_VALUE;
+        for (var load : loads) oldestIndexedAt = Math.min(oldestIndexedAt, load.indexedAt());
+
+        final long oldestIndexedAtFinal = oldestIndexedAt;
+        final var presentPlayers = ConcurrentHashMap.<UUID>newKeySet();
+        final var modifiedAt = new ConcurrentHashMap<UUID, Long>();
+
+        // read every changed file once and hand it to all indices it is outdated for
+        CURRENT_SCAN = OfflineDataLookup.scan(server.getSavePath(WorldSavePath.PLAYERDATA), (player, playerFile) -> {
+            presentPlayers.add(player);
+
+            long lastModified;
+            try {
+                lastModified = Files.getLastModifiedTime(playerFile).toMillis();
+            } catch (IOException e) {
+                lastModified = Long.MAX_VALUE;
+            }
+
+            modifiedAt.put(player, lastModified);
+
+            // compare inclusively, as the file might have been written in the same millisecond
+            return lastModified >= oldestIndexedAtFinal;
+        }, (player, nbt) -> {
+            final long lastModified = modifiedAt.get(player);
+            for (var load : loads) {
+                if (lastModified >= load.indexedAt()) load.index().indexLoaded(load.generation(), player, nbt);
+            }
+        }, combinedRequiredElements());
+
+        CURRENT_SCAN.whenComplete((unused, throwable) -> {
+            for (var load : loads) load.index().finishLoad(load, presentPlayers, throwable);
+        });
+    }
+
+    private static NbtScanQuery[] combinedRequiredElements() {
+        final var elements = new LinkedHashSet<NbtScanQuery>();
+        for (var index : INDICES.values()) {
+            // this index needs the entire data, so there is nothing to skip
+            if (index.requiredElements.length == 0) return new NbtScanQuery[0];
+            elements.addAll(Arrays.asList(index.requiredElements));
+        }
+
+        return elements.toArray(NbtScanQuery[]::new);
+    }
+
+    private Load beginLoad(MinecraftServer server, long scanStartedAt) {
+        long indexedAt = Long.MIN_VALUE;
+
+        final var file = this.file(server);
+        if (Files.exists(file)) {
+            try {
+                indexedAt = this.read(NbtIo.readCompressed(file.toFile()));
+            } catch (IOException | RuntimeException e) {
+                Owo.LOGGER.error("Couldn't load offline player index '{}', rebuilding it", this.id, e);
+
+                synchronized (this) {
+                    this.termsByPlayer.clear();
+                    this.playersByTerm.clear();
+                }
+            }
+        }
+
+        synchronized (this) {
+            this.scanStartedAt = scanStartedAt;
+            return new Load(this, indexedAt, this.generation, this.ready);
+        }
+    }
+
+    private void finishLoad(Load load, Set<UUID> presentPlayers, @Nullable Throwable throwable) {
+        // the server stopped before the index finished loading
+        if (throwable instanceof CancellationException) return;
+
+        if (throwable != null) {
+            Owo.LOGGER.error("Couldn't build offline player index '{}'", this.id, throwable);
+            load.ready().completeExceptionally(throwable);
+            return;
+        }
+
+        synchronized (this) {
+            if (load.generation() != this.generation) return;
+
+            // drop players whose data was deleted
+            for (var player : List.copyOf(this.termsByPlayer.keySet())) {
+                if (!presentPlayers.contains(player) && !this.savedDuringLoad.contains(player)) this.setTerms(player, Set.of());
+            }
+
+            this.savedDuringLoad.clear();
+        }
+
+        load.ready().complete(null);
+    }
+
+    private synchronized long read(NbtCompound nbt) {
+        if (nbt.getInt("FormatVersion") != FORMAT_VERSION) return Long.MIN_VALUE;
+
+        final var entries = nbt.getCompound("Entries");
+        for (var player : entries.getKeys()) {
+            final var terms = new HashSet<String>();
+            for (var term : entries.getList(player, NbtElement.STRING_TYPE)) {
+                terms.add(term.asString());
+            }
+
+            this.setTerms(UUID.fromString(player), terms);
+        }
+
+        return nbt.getLong("IndexedAt");
+    }
+
+    private void save(MinecraftServer server) {
+        final var ready = this.ready;
+        this.ready = new CompletableFuture<>();
+
+        // an incomplete index is rebuilt on the next start instead
+        if (!ready.isDone() || ready.isCompletedExceptionally()) {
+            ready.cancel(false);
+            this.clear();
+            return;
+        }
+
+        final var nbt = new NbtCompound();
+        synchronized (this) {
+            nbt.putInt("FormatVersion", FORMAT_VERSION);
+            nbt.putLong("IndexedAt", this.scanStartedAt);
+
+            final var entries = new NbtCompound();
+            this.termsByPlayer.forEach((player, terms) -> {
+                final var termList = new NbtList();
+                for (var term : terms) termList.add(NbtString.of(term));
+
+                entries.put(player.toString(), termList);
+            });
+            nbt.put("Entries", entries);
+        }
+
+        this.clear();
+
+        try {
+            final var file = this.file(server);
+            Files.createDirectories(file.getParent());
+
+            final var tempFile = Files.createTempFile(file.getParent(), this.id.getPath() + "-", ".dat");
+            try {
+                NbtIo.writeCompressed(nbt, tempFile.toFile());
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            Owo.LOGGER.error("Couldn't save offline player index '{}'", this.id, e);
+        }
+    }
+
+    private synchronized void clear() {
+        this.generation++;
+        this.termsByPlayer.clear();
+        this.playersByTerm.clear();
+        this.savedDuringLoad.clear();
+    }
+
+    private Path file(MinecraftServer server) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve("owo_offline_index").resolve(this.id.getNamespace()).resolve(this.id.getPath() + ".dat");
+    }
+
+    private void indexLoaded(int generation, UUID player, NbtCompound nbt) {
+        final var terms = this.extract(player, nbt);
+
+        synchronized (this) {
+            if (generation != this.generation || this.savedDuringLoad.contains(player)) return;
+            this.setTerms(player, terms);
+        }
+    }
+
+    private void indexSaved(UUID player, NbtCompound nbt) {
+        final var terms = this.extract(player, nbt);
+
+        synchronized (this) {
+            if (!this.ready.isDone()) this.savedDuringLoad.add(player);
+            this.setTerms(player, terms);
+        }
+    }
+
+    private Set<String> extract(UUID player, NbtCompound nbt) {
+        try {
+            return Set.copyOf(this.extractor.apply(nbt));
+        } catch (RuntimeException e) {
+            Owo.LOGGER.error("Offline player index '{}' failed to extract terms for player {}", this.id, player, e);
+            return Set.of();
+        }
+    }
+
+    private void setTerms(UUID player, Set<String> terms) {
+        final var previousTerms = terms.isEmpty() ? this.termsByPlayer.remove(player) : this.termsByPlayer.put(player, terms);
+
+        if (previousTerms != null) {
+            for (var term : previousTerms) {
+                final var players = this.playersByTerm.get(term);
+                players.remove(player);
+                if (players.isEmpty()) this.playersByTerm.remove(term);
+            }
+        }
+
+        for (var term : terms) {
+            this.playersByTerm.computeIfAbsent(term, s -> new HashSet<>()).add(player);
+        }
+    }
+
+    private record Load(OfflinePlayerIndex index, long indexedAt, int generation, CompletableFuture<Void> ready) {}
+
+    static {
+        ServerLifecycleEvents.SERVER_STARTED.register(OfflinePlayerIndex::loadAll);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            if (CURRENT_SCAN != null) {
+                CURRENT_SCAN.cancel(false);
+                CURRENT_SCAN = null;
+            }
+
+            INDICES.values().forEach(index -> index.save(server));
+        });
+
+        DataSavedEvents.PLAYER_DATA.register((player, newTag) -> INDICES.values().forEach(index -> index.indexSaved(player, newTag)));
+    }
+}
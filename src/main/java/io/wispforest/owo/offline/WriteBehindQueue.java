@@ -0,0 +1,233 @@
+package io.wispforest.owo.offline;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.wispforest.owo.Owo;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes offline player data, either on a dedicated I/O thread or directly on the
+ * calling thread. Should data for a player be enqueued while an older version of it
+ * is still waiting to be written, the older version is replaced and only the newest
+ * one ever reaches the disk. Writes of the same player are ordered by a lock for that
+ * player, and a write is dropped if a newer one for the same player exists by the
+ * time it acquires the lock - so unrelated players never wait for each other
+ *
+ * @param <T> The type of data this queue writes
+ */
+final class WriteBehindQueue<T> {
+
+    private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("owo-offline-io").setDaemon(true).build());
+
+    // a fixed set of locks, which players are spread across by their UUID
+    private static final Object[] PLAYER_LOCKS = new Object[64];
+
+    private final String description;
+    private final Writer<T> writer;
+
+    // the newest write of every player which has not finished yet
+    private final Map<UUID, PendingWrite<T>> latest = new HashMap<>();
+    private final Set<CompletableFuture<Void>> outstanding = ConcurrentHashMap.newKeySet();
+
+    WriteBehindQueue(String description, Writer<T> writer) {
+        this.description = description;
+        this.writer = writer;
+
+        // the I/O thread is a daemon, so make sure nothing is lost on shutdown
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            try {
+                this.flush().join();
+            } catch (CompletionException e) {
+                // the failed writes have already been logged, this
+                // must not keep the remaining listeners from running
+                Owo.LOGGER.error("Not all {} of offline players could be saved", this.description);
+            }
+        });
+    }
+
+    /**
+     * Writes {@code data} for the given player on the calling thread, superseding any
+     * write for them that has not begun yet. This only waits for a write of the same
+     * player which is already in progress, never for those of other players
+     *
+     * @param directory The directory to write the player's file into
+     * @param player    The player to write data for
+     * @param data      The data to write, which must not be modified until this returns
+     * @throws RuntimeException If the write failed, wrapping the {@link IOException} that caused it
+     */
+    void writeNow(Path directory, UUID player, T data) {
+        final var write = new PendingWrite<>(directory, data);
+        write.started = true;
+
+        synchronized (this) {
+            this.latest.put(player, write);
+        }
+
+        this.perform(player, write);
+
+        try {
+            write.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Schedules {@code data} to be written for the given player
+     *
+     * @param directory The directory to write the player's file into
+     * @param player    The player to write data for
+     * @param data      The data to write, which must not be modified afterwards
+     * @return A future which completes once the data, or a newer version of it, has been written
+     */
+    synchronized CompletableFuture<Void> enqueue(Path directory, UUID player, T data) {
+        var write = this.latest.get(player);
+        if (write != null && !write.started) {
+            write.data = data;
+            write.expectedFile = null;
+            return write.future;
+        }
+
+        write = new PendingWrite<>(directory, data);
+        this.latest.put(player, write);
+
+        final var future = write.future;
+        this.outstanding.add(future);
+        future.whenComplete((unused, throwable) -> this.outstanding.remove(future));
+
+        final var scheduled = write;
+        IO_EXECUTOR.execute(() -> {
+            synchronized (this) {
+                scheduled.started = true;
+            }
+
+            this.perform(player, scheduled);
+        });
+
+        return future;
+    }
+
+    /**
+     * Schedules {@code data} to be written for the given player, but only if no other
+     * write for them is pending or in progress. Right before writing, the player's file
+     * is checked to still have the given modification time and the write is dropped
+     * otherwise - this is meant for rewriting a file in a different format, which must
+     * never replace data that was saved in the meantime
+     *
+     * @param directory    The directory to write the player's file into
+     * @param player       The player to write data for
+     * @param data         The data to write, which must not be modified afterwards
+     * @param file         The player's file
+     * @param lastModified The modification time {@code file} had when {@code data} was read from it
+     */
+    synchronized void enqueueIfUnchanged(Path directory, UUID player, T data, Path file, long lastModified) {
+        if (this.latest.containsKey(player)) return;
+
+        this.enqueue(directory, player, data);
+        final var write = this.latest.get(player);
+        write.expectedFile = file;
+        write.expectedLastModified = lastModified;
+    }
+
+    /**
+     * @return The newest data enqueued or being written
+     * for the given player which has not finished being written yet, if any
+     */
+    synchronized @Nullable T pending(UUID player) {
+        final var write = this.latest.get(player);
+        return write != null ? write.data : null;
+    }
+
+    /**
+     * @return A future which completes once every write
+     * enqueued up to this point has finished
+     */
+    CompletableFuture<Void> flush() {
+        return CompletableFuture.allOf(this.outstanding.toArray(CompletableFuture[]::new));
+    }
+
+    private void perform(UUID player, PendingWrite<T> write) {
+        synchronized (PLAYER_LOCKS[Math.floorMod(player.hashCode(), PLAYER_LOCKS.length)]) {
+            synchronized (this) {
+                final var newest = this.latest.get(player);
+                if (newest != write) {
+                    // a newer version exists, which either was written already or will be after this
+                    if (newest == null) {
+                        write.future.complete(null);
+                    } else {
+                        newest.future.whenComplete((unused, throwable) -> {
+                            if (throwable == null) {
+                                write.future.complete(null);
+                            } else {
+                                write.future.completeExceptionally(throwable);
+                            }
+                        });
+                    }
+
+                    return;
+                }
+            }
+
+            try {
+                if (write.expectedFile == null || isUnchanged(write.expectedFile, write.expectedLastModified)) {
+                    this.writer.write(write.directory, player, write.data);
+                }
+
+                write.future.complete(null);
+            } catch (IOException | RuntimeException e) {
+                Owo.LOGGER.error("Couldn't save {} of offline player {}", this.description, player, e);
+                write.future.completeExceptionally(e);
+            } finally {
+                // keep serving the data until it is on disk, so readers never see an older file
+                synchronized (this) {
+                    this.latest.remove(player, write);
+                }
+            }
+        }
+    }
+
+    private static boolean isUnchanged(Path file, long lastModified) throws IOException {
+        return Files.exists(file) && Files.getLastModifiedTime(file).toMillis() == lastModified;
+    }
+
+    @FunctionalInterface
+    interface Writer<T> {
+        void write(Path directory, UUID player, T data) throws IOException;
+    }
+
+    private static final class PendingWrite<T> {
+        private final Path directory;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private T data;
+
+        // set once the write has been handed to a thread, after which its data is final
+        private boolean started = false;
+
+        private @Nullable Path expectedFile = null;
+        private long expectedLastModified;
+
+        private PendingWrite(Path directory, T data) {
+            this.directory = directory;
+            this.data = data;
+        }
+    }
+
+    static {
+        for (int i = 0; i < PLAYER_LOCKS.length; i++) PLAYER_LOCKS[i] = new Object();
+    }
+}
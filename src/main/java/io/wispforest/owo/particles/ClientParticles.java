@@ -15,6 +15,12 @@ import net.minecraft.world.World;
 /**
  * A wrapper for vanilla's terrible particle system that allows for easier
  * and more complex multi-particle operations
+ * <p>
+ * The configuration methods of this class modify global state that is shared by
+ * all callers - effects which are spawned repeatedly should instead be described
+ * once by a {@link ParticleEmitter}
+ * <p>
+ * All spawn operations are subject to the {@link ParticleBudget}
  */
 @Environment(EnvType.CLIENT)
 public class ClientParticles {
@@ -22,11 +28,14 @@ public class ClientParticles {
     private static int particleCount = 1;
     private static boolean persist = false;
 
-    private static Vec3d velocity = new Vec3d(0, 0, 0);
+    // kept as raw coordinates, so that randomizing it does not allocate per particle
+    private static double velocityX = 0, velocityY = 0, velocityZ = 0;
     private static boolean randomizeVelocity = false;
     private static double randomVelocityScalar = 0;
     private static Direction.Axis randomizationAxis = null;
 
+    private static final ShapeSpawner SHAPE_SPAWNER = new ShapeSpawner();
+
     /**
      * Marks the values set by {@link ClientParticles#setParticleCount(int)} and {@link ClientParticles#setVelocity(Vec3d)} to be persistent
      */
@@ -51,7 +60,9 @@ public class ClientParticles {
      * </b>
      */
     public static void setVelocity(Vec3d velocity) {
-        ClientParticles.velocity = velocity;
+        ClientParticles.velocityX = velocity.x;
+        ClientParticles.velocityY = velocity.y;
+        ClientParticles.velocityZ = velocity.z;
     }
 
     /**
@@ -97,26 +108,40 @@ public class ClientParticles {
         if (persist) return;
 
         particleCount = 1;
-        velocity = new Vec3d(0, 0, 0);
+        velocityX = 0;
+        velocityY = 0;
+        velocityZ = 0;
 
         randomizeVelocity = false;
     }
 
-    private static void addParticle(ParticleEffect particle, World world, Vec3d location) {
+    // works on raw coordinates, so spawning does not allocate per particle
+    private static void addParticle(ParticleEffect particle, World world, double x, double y, double z) {
+        if (!ParticleBudget.tryConsume()) return;
+
+        // a randomized velocity replaces the configured one, just like it always has
         if (randomizeVelocity) {
             if (randomizationAxis == null) {
-                velocity = VectorRandomUtils.getRandomOffset(world, Vec3d.ZERO, randomVelocityScalar);
+                velocityX = VectorRandomUtils.getRandomOffset(world, 0, randomVelocityScalar);
+                velocityY = VectorRandomUtils.getRandomOffset(world, 0, randomVelocityScalar);
+                velocityZ = VectorRandomUtils.getRandomOffset(world, 0, randomVelocityScalar);
             } else {
                 final var stopIt_getSomeHelp = (world.random.nextDouble() * 2 - 1) * randomVelocityScalar;
-                velocity = switch (randomizationAxis) {
-                    case X -> new Vec3d(stopIt_getSomeHelp, 0, 0);
-                    case Y -> new Vec3d(0, stopIt_getSomeHelp, 0);
-                    case Z -> new Vec3d(0, 0, stopIt_getSomeHelp);
-                };
+                velocityX = randomizationAxis == Direction.Axis.X ? stopIt_getSomeHelp : 0;
+                velocityY = randomizationAxis == Direction.Axis.Y ? stopIt_getSomeHelp : 0;
+                velocityZ = randomizationAxis == Direction.Axis.Z ? stopIt_getSomeHelp : 0;
             }
         }
 
-        world.addParticle(particle, location.x, location.y, location.z, velocity.x, velocity.y, velocity.z);
+        world.addParticle(particle, x, y, z, velocityX, velocityY, velocityZ);
+    }
+
+    private static void addParticleWithDeviation(ParticleEffect particle, World world, double x, double y, double z, double deviationX, double deviationY, double deviationZ) {
+        addParticle(particle, world,
+                VectorRandomUtils.getRandomOffset(world, x, deviationX),
+                VectorRandomUtils.getRandomOffset(world, y, deviationY),
+                VectorRandomUtils.getRandomOffset(world, z, deviationZ)
+        );
     }
 
     /**
@@ -128,11 +153,10 @@ public class ClientParticles {
      * @param deviation The maximum deviation from the center of pos
      */
     public static void spawnCenteredOnBlock(ParticleEffect particle, World world, BlockPos pos, double deviation) {
-        Vec3d location;
+        final int count = ParticleBudget.scaleCount(particleCount, pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5);
 
-        for (int i = 0; i < particleCount; i++) {
-            location = VectorRandomUtils.getRandomCenteredOnBlock(world, pos, deviation);
-            addParticle(particle, world, location);
+        for (int i = 0; i < count; i++) {
+            addParticleWithDeviation(particle, world, pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5, deviation, deviation, deviation);
         }
 
         clearState();
@@ -146,11 +170,10 @@ public class ClientParticles {
      * @param pos      The block to spawn particles in
      */
     public static void spawnWithinBlock(ParticleEffect particle, World world, BlockPos pos) {
-        Vec3d location;
+        final int count = ParticleBudget.scaleCount(particleCount, pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5);
 
-        for (int i = 0; i < particleCount; i++) {
-            location = VectorRandomUtils.getRandomWithinBlock(world, pos);
-            addParticle(particle, world, location);
+        for (int i = 0; i < count; i++) {
+            addParticleWithDeviation(particle, world, pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5, 0.5, 0.5, 0.5);
         }
 
         clearState();
@@ -166,13 +189,12 @@ public class ClientParticles {
      * @param deviation The scalar for random distribution
      */
     public static void spawnWithOffsetFromBlock(ParticleEffect particle, World world, BlockPos pos, Vec3d offset, double deviation) {
-        Vec3d location;
-        offset = offset.add(Vec3d.of(pos));
+        final double x = pos.getX() + offset.x, y = pos.getY() + offset.y, z = pos.getZ() + offset.z;
 
-        for (int i = 0; i < particleCount; i++) {
-            location = VectorRandomUtils.getRandomOffset(world, offset, deviation);
+        final int count = ParticleBudget.scaleCount(particleCount, x, y, z);
 
-            addParticle(particle, world, location);
+        for (int i = 0; i < count; i++) {
+            addParticleWithDeviation(particle, world, x, y, z, deviation, deviation, deviation);
         }
 
         clearState();
@@ -187,11 +209,10 @@ public class ClientParticles {
      * @param deviation The scalar from random distribution
      */
     public static void spawn(ParticleEffect particle, World world, Vec3d pos, double deviation) {
-        Vec3d location;
+        final int count = ParticleBudget.scaleCount(particleCount, pos.x, pos.y, pos.z);
 
-        for (int i = 0; i < particleCount; i++) {
-            location = VectorRandomUtils.getRandomOffset(world, pos, deviation);
-            addParticle(particle, world, location);
+        for (int i = 0; i < count; i++) {
+            addParticleWithDeviation(particle, world, pos.x, pos.y, pos.z, deviation, deviation, deviation);
         }
 
         clearState();
@@ -208,11 +229,10 @@ public class ClientParticles {
      * @param deviationZ The scalar from random distribution on z
      */
     public static void spawnPrecise(ParticleEffect particle, World world, Vec3d pos, double deviationX, double deviationY, double deviationZ) {
-        Vec3d location;
+        final int count = ParticleBudget.scaleCount(particleCount, pos.x, pos.y, pos.z);
 
-        for (int i = 0; i < particleCount; i++) {
-            location = VectorRandomUtils.getRandomOffsetSpecific(world, pos, deviationX, deviationY, deviationZ);
-            addParticle(particle, world, location);
+        for (int i = 0; i < count; i++) {
+            addParticleWithDeviation(particle, world, pos.x, pos.y, pos.z, deviationX, deviationY, deviationZ);
         }
 
         clearState();
@@ -227,13 +247,17 @@ public class ClientParticles {
      * @param deviation   The scalar for random distribution around {@code origin}
      */
     public static void spawnEnchantParticles(World world, Vec3d origin, Vec3d destination, float deviation) {
+        final double velocityX = origin.x - destination.x, velocityY = origin.y - destination.y, velocityZ = origin.z - destination.z;
 
-        Vec3d location;
-        Vec3d particleVector = origin.subtract(destination);
+        final int count = ParticleBudget.scaleCount(particleCount, destination.x, destination.y, destination.z);
 
-        for (int i = 0; i < particleCount; i++) {
-            location = VectorRandomUtils.getRandomOffset(world, particleVector, deviation);
-            world.addParticle(ParticleTypes.ENCHANT, destination.x, destination.y, destination.z, location.x, location.y, location.z);
+        for (int i = 0; i < count; i++) {
+            if (!ParticleBudget.tryConsume()) break;
+
+            world.addParticle(ParticleTypes.ENCHANT, destination.x, destination.y, destination.z,
+                    VectorRandomUtils.getRandomOffset(world, velocityX, deviation),
+                    VectorRandomUtils.getRandomOffset(world, velocityY, deviation),
+                    VectorRandomUtils.getRandomOffset(world, velocityZ, deviation));
         }
 
         clearState();
@@ -248,7 +272,12 @@ public class ClientParticles {
      */
     @SuppressWarnings("ConstantConditions")
     public static <T extends ParticleEffect> void spawnWithMaxAge(T particleType, Vec3d pos, int maxAge) {
-        Particle particle = MinecraftClient.getInstance().particleManager.addParticle(particleType, pos.x, pos.y, pos.z, velocity.x, velocity.y, velocity.z);
+        if (ParticleBudget.scaleCount(1, pos.x, pos.y, pos.z) == 0 || !ParticleBudget.tryConsume()) {
+            clearState();
+            return;
+        }
+
+        Particle particle = MinecraftClient.getInstance().particleManager.addParticle(particleType, pos.x, pos.y, pos.z, velocityX, velocityY, velocityZ);
         particle.setMaxAge(maxAge);
 
         clearState();
@@ -264,7 +293,7 @@ public class ClientParticles {
      * @param deviation A random offset from the line that particles can have
      */
     public static void spawnLine(ParticleEffect particle, World world, Vec3d start, Vec3d end, float deviation) {
-        spawnLineInner(particle, world, start, end, deviation);
+        spawnLineInner(particle, world, ParticleBudget.scaleCount(particleCount, start.x, start.y, start.z), start.x, start.y, start.z, end.x, end.y, end.z, deviation);
         clearState();
     }
 
@@ -279,37 +308,101 @@ public class ClientParticles {
      * @param deviation A random offset from the line that particles can have
      */
     public static void spawnCubeOutline(ParticleEffect particle, World world, Vec3d origin, float size, float deviation) {
+        final double x = origin.x, y = origin.y, z = origin.z;
+        final int count = ParticleBudget.scaleCount(particleCount, x, y, z);
 
-        spawnLineInner(particle, world, origin, origin.add(size, 0, 0), deviation);
-        spawnLineInner(particle, world, origin.add(size, 0, 0), origin.add(size, 0, size), deviation);
+        spawnLineInner(particle, world, count, x, y, z, x + size, y, z, deviation);
+        spawnLineInner(particle, world, count, x + size, y, z, x + size, y, z + size, deviation);
 
-        spawnLineInner(particle, world, origin, origin.add(0, 0, size), deviation);
-        spawnLineInner(particle, world, origin.add(0, 0, size), origin.add(size, 0, size), deviation);
+        spawnLineInner(particle, world, count, x, y, z, x, y, z + size, deviation);
+        spawnLineInner(particle, world, count, x, y, z + size, x + size, y, z + size, deviation);
 
-        origin = origin.add(0, size, 0);
+        final double top = y + size;
 
-        spawnLineInner(particle, world, origin, origin.add(size, 0, 0), deviation);
-        spawnLineInner(particle, world, origin.add(size, 0, 0), origin.add(size, 0, size), deviation);
+        spawnLineInner(particle, world, count, x, top, z, x + size, top, z, deviation);
+        spawnLineInner(particle, world, count, x + size, top, z, x + size, top, z + size, deviation);
+
+        spawnLineInner(particle, world, count, x, top, z, x, top, z + size, deviation);
+        spawnLineInner(particle, world, count, x, top, z + size, x + size, top, z + size, deviation);
+
+        spawnLineInner(particle, world, count, x, top, z, x, top - size, z, deviation);
+        spawnLineInner(particle, world, count, x + size, top, z, x + size, top - size, z, deviation);
+        spawnLineInner(particle, world, count, x, top, z + size, x, top - size, z + size, deviation);
+        spawnLineInner(particle, world, count, x + size, top, z + size, x + size, top - size, z + size, deviation);
+
+        clearState();
+    }
+
+    /**
+     * Spawns particles in the given shape, anchored at {@code pos}. Shapes like
+     * circles, spheres, helices and splines can be obtained from {@link ParticleShapes}
+     *
+     * @param particle  The particle to spawn
+     * @param world     The world to spawn the particles in, must be {@link net.minecraft.client.world.ClientWorld}
+     * @param pos       The position to anchor the shape at
+     * @param shape     The shape to spawn the particles in
+     * @param deviation A random offset from the shape that particles can have
+     */
+    public static void spawnShape(ParticleEffect particle, World world, Vec3d pos, ParticleEmitter.Shape shape, double deviation) {
+        final int count = ParticleBudget.scaleCount(particleCount, pos.x, pos.y, pos.z);
 
-        spawnLineInner(particle, world, origin, origin.add(0, 0, size), deviation);
-        spawnLineInner(particle, world, origin.add(0, 0, size), origin.add(size, 0, size), deviation);
+        // a shape could spawn particles itself, in which case the shared spawner is already in use
+        final var spawner = SHAPE_SPAWNER.particle == null ? SHAPE_SPAWNER : new ShapeSpawner();
+        spawner.begin(particle, world, pos.x, pos.y, pos.z, deviation);
 
-        spawnLineInner(particle, world, origin, origin.add(0, -size, 0), deviation);
-        spawnLineInner(particle, world, origin.add(size, 0, 0), origin.add(size, -size, 0), deviation);
-        spawnLineInner(particle, world, origin.add(0, 0, size), origin.add(0, -size, size), deviation);
-        spawnLineInner(particle, world, origin.add(size, 0, size), origin.add(size, -size, size), deviation);
+        try {
+            shape.emit(count, spawner);
+        } finally {
+            spawner.end();
+        }
 
         clearState();
     }
 
-    private static void spawnLineInner(ParticleEffect particle, World world, Vec3d start, Vec3d end, float deviation) {
-        Vec3d increment = end.subtract(start).multiply(1f / (float) particleCount);
+    private static void spawnLineInner(ParticleEffect particle, World world, int count, double startX, double startY, double startZ, double endX, double endY, double endZ, float deviation) {
+        final double step = 1f / (float) count;
+        final double incrementX = (endX - startX) * step, incrementY = (endY - startY) * step, incrementZ = (endZ - startZ) * step;
+
+        double x = startX, y = startY, z = startZ;
+        for (int i = 0; i < count; i++) {
+            x = VectorRandomUtils.getRandomOffset(world, x, deviation);
+            y = VectorRandomUtils.getRandomOffset(world, y, deviation);
+            z = VectorRandomUtils.getRandomOffset(world, z, deviation);
+            addParticle(particle, world, x, y, z);
 
-        for (int i = 0; i < particleCount; i++) {
-            start = VectorRandomUtils.getRandomOffset(world, start, deviation);
-            addParticle(particle, world, start);
-            start = start.add(increment);
+            x += incrementX;
+            y += incrementY;
+            z += incrementZ;
         }
     }
 
+    /**
+     * Spawns a particle at every point emitted by a shape. A single instance
+     * is reused for all shapes, so that spawning them does not allocate
+     */
+    private static final class ShapeSpawner implements ParticleEmitter.PointConsumer {
+
+        private ParticleEffect particle = null;
+        private World world = null;
+        private double x, y, z, deviation;
+
+        private void begin(ParticleEffect particle, World world, double x, double y, double z, double deviation) {
+            this.particle = particle;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.deviation = deviation;
+        }
+
+        private void end() {
+            this.particle = null;
+            this.world = null;
+        }
+
+        @Override
+        public void accept(double x, double y, double z) {
+            addParticleWithDeviation(this.particle, this.world, this.x + x, this.y + y, this.z + z, this.deviation, this.deviation, this.deviation);
+        }
+    }
 }
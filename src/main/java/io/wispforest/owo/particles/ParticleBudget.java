@@ -0,0 +1,150 @@
+package io.wispforest.owo.particles;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.math.MathHelper;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the amount of particles spawned through {@link ClientParticles}
+ * and {@link ParticleEmitter} in check. Every spawn operation has its particle
+ * count scaled down based on its distance to the camera and, should the game
+ * run slower than the target frame rate, the current frame time. On top of that,
+ * no more than a fixed amount of particles is spawned per frame
+ * <p>
+ * All of these limits are disabled by default, so that particle counts stay
+ * exactly as configured - use the setters in this class to enable them
+ */
+@Environment(EnvType.CLIENT)
+public final class ParticleBudget {
+
+    private static int frameCap = Integer.MAX_VALUE;
+    private static int spawnedThisFrame = 0;
+
+    private static double fullDetailDistance = Double.POSITIVE_INFINITY;
+    private static double cullDistance = Double.POSITIVE_INFINITY;
+
+    // zero disables frame time scaling
+    private static double targetFrameNanos = 0;
+    private static double averageFrameNanos = 0;
+    private static long lastFrameStart = -1;
+
+    private ParticleBudget() {}
+
+    /**
+     * Sets the maximum amount of particles spawned per frame,
+     * further particles are dropped until the next frame begins.
+     * By default, there is no limit
+     *
+     * @param cap The maximum amount of particles per frame
+     */
+    public static void setFrameCap(int cap) {
+        if (cap < 0) throw new IllegalArgumentException("Frame cap must not be negative");
+        frameCap = cap;
+    }
+
+    /**
+     * Sets the distances between which spawn operations have their particle
+     * counts scaled down. Pass {@link Double#POSITIVE_INFINITY} for both
+     * to disable distance scaling again, which is the default
+     *
+     * @param fullDetail Up to this distance from the camera, the full particle count is spawned
+     * @param cull       From this distance onwards, no particles are spawned. In between, the
+     *                   particle count is scaled down linearly
+     */
+    public static void setLodDistances(double fullDetail, double cull) {
+        if (fullDetail < 0 || cull < fullDetail) throw new IllegalArgumentException("LOD distances must satisfy 0 <= fullDetail <= cull");
+
+        fullDetailDistance = fullDetail;
+        cullDistance = cull;
+    }
+
+    /**
+     * Sets the frame rate below which particle counts
+     * are scaled down proportionally to the frame time
+     *
+     * @param framesPerSecond The target frame rate, or {@code 0} to
+     *                        disable frame time scaling, which is the default
+     */
+    public static void setTargetFrameRate(int framesPerSecond) {
+        if (framesPerSecond < 0) throw new IllegalArgumentException("Target frame rate must not be negative");
+        targetFrameNanos = framesPerSecond == 0 ? 0 : 1e9 / framesPerSecond;
+    }
+
+    /**
+     * @return The amount of particles spawned so far this frame
+     */
+    public static int spawnedThisFrame() {
+        return spawnedThisFrame;
+    }
+
+    /**
+     * Scales the particle count of a spawn operation according to the distance from
+     * the camera and the current frame time. Fractional counts are rounded randomly,
+     * so that on average the exact scaled amount of particles is spawned
+     *
+     * @param count The particle count the operation was configured with
+     * @param x     The x coordinate of the spawn operation
+     * @param y     The y coordinate of the spawn operation
+     * @param z     The z coordinate of the spawn operation
+     * @return The amount of particles the operation should actually spawn
+     */
+    public static int scaleCount(int count, double x, double y, double z) {
+        if (count <= 0) return 0;
+
+        final double factor = distanceFactor(x, y, z) * frameTimeFactor();
+        if (factor >= 1) return count;
+
+        final double scaled = count * factor;
+        final int whole = (int) scaled;
+        return ThreadLocalRandom.current().nextDouble() < scaled - whole ? whole + 1 : whole;
+    }
+
+    /**
+     * Accounts for a single particle in the budget
+     * of the current frame, if there is space left
+     *
+     * @return {@code true} if the particle should be spawned
+     */
+    public static boolean tryConsume() {
+        if (spawnedThisFrame >= frameCap) return false;
+
+        spawnedThisFrame++;
+        return true;
+    }
+
+    private static double distanceFactor(double x, double y, double z) {
+        final var camera = MinecraftClient.getInstance().gameRenderer.getCamera();
+        if (!camera.isReady()) return 1;
+
+        final double distanceSquared = camera.getPos().squaredDistanceTo(x, y, z);
+        if (distanceSquared <= fullDetailDistance * fullDetailDistance) return 1;
+        if (distanceSquared >= cullDistance * cullDistance) return 0;
+
+        return 1 - (Math.sqrt(distanceSquared) - fullDetailDistance) / (cullDistance - fullDetailDistance);
+    }
+
+    private static double frameTimeFactor() {
+        if (targetFrameNanos == 0 || averageFrameNanos <= targetFrameNanos) return 1;
+        return MathHelper.clamp(targetFrameNanos / averageFrameNanos, .1, 1);
+    }
+
+    private static void beginFrame() {
+        final long now = System.nanoTime();
+
+        if (lastFrameStart != -1) {
+            final long frameNanos = now - lastFrameStart;
+            averageFrameNanos = averageFrameNanos == 0 ? frameNanos : averageFrameNanos * .9 + frameNanos * .1;
+        }
+
+        lastFrameStart = now;
+        spawnedThisFrame = 0;
+    }
+
+    static {
+        WorldRenderEvents.START.register(context -> beginFrame());
+    }
+}
@@ -0,0 +1,368 @@
+package io.wispforest.owo.particles;
+
+import io.wispforest.owo.util.VectorRandomUtils;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An immutable description of a particle effect - which particle to spawn,
+ * how many of them, with which velocity, deviation and in which shape.
+ * Unlike the global configuration of {@link ClientParticles}, an emitter is
+ * configured once and can then be spawned any number of times, from
+ * anywhere, without affecting any other emitter. Spawning
+ * an emitter is subject to the {@link ParticleBudget}
+ * <p>
+ * Emitters are created via {@link #builder(ParticleEffect)}
+ */
+@Environment(EnvType.CLIENT)
+public final class ParticleEmitter {
+
+    private static final ThreadLocal<Spawner> SPAWNER = ThreadLocal.withInitial(Spawner::new);
+
+    private final ParticleEffect particle;
+    private final int count;
+    private final Shape shape;
+
+    private final double deviationX, deviationY, deviationZ;
+
+    private final double velocityX, velocityY, velocityZ;
+    private final boolean randomizeVelocity;
+    private final double randomVelocityScalar;
+    private final @Nullable Direction.Axis randomizationAxis;
+
+    private ParticleEmitter(Builder builder) {
+        this.particle = builder.particle;
+        this.count = builder.count;
+        this.shape = builder.shape;
+
+        this.deviationX = builder.deviationX;
+        this.deviationY = builder.deviationY;
+        this.deviationZ = builder.deviationZ;
+
+        this.velocityX = builder.velocityX;
+        this.velocityY = builder.velocityY;
+        this.velocityZ = builder.velocityZ;
+        this.randomizeVelocity = builder.randomizeVelocity;
+        this.randomVelocityScalar = builder.randomVelocityScalar;
+        this.randomizationAxis = builder.randomizationAxis;
+    }
+
+    /**
+     * Creates a new builder for an emitter of the given particle,
+     * which by default spawns a single, unmoving particle exactly at the spawn position
+     *
+     * @param particle The particle to spawn
+     * @return The created builder
+     */
+    public static Builder builder(ParticleEffect particle) {
+        return new Builder(particle);
+    }
+
+    /**
+     * @return A new builder initialized with the configuration of this emitter
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Spawns this emitter's particles, with the shape anchored at {@code pos}
+     *
+     * @param world The world to spawn the particles in, must be {@link net.minecraft.client.world.ClientWorld}
+     * @param pos   The position to anchor the shape at
+     */
+    public void spawn(World world, Vec3d pos) {
+        this.spawn(world, pos.x, pos.y, pos.z);
+    }
+
+    /**
+     * Spawns this emitter's particles, with the shape anchored at the center of {@code pos}
+     *
+     * @param world The world to spawn the particles in, must be {@link net.minecraft.client.world.ClientWorld}
+     * @param pos   The block to anchor the shape at
+     */
+    public void spawnCenteredOnBlock(World world, BlockPos pos) {
+        this.spawn(world, pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5);
+    }
+
+    /**
+     * Spawns this emitter's particles, with the shape anchored at the given coordinates
+     *
+     * @param world The world to spawn the particles in, must be {@link net.minecraft.client.world.ClientWorld}
+     * @param x     The x coordinate to anchor the shape at
+     * @param y     The y coordinate to anchor the shape at
+     * @param z     The z coordinate to anchor the shape at
+     */
+    public void spawn(World world, double x, double y, double z) {
+        // a shape could spawn another emitter itself, in which case this thread's spawner is already in use
+        var spawner = SPAWNER.get();
+        if (spawner.emitter != null) spawner = new Spawner();
+
+        spawner.begin(this, world, x, y, z);
+
+        try {
+            this.shape.emit(ParticleBudget.scaleCount(this.count, x, y, z), spawner);
+        } finally {
+            spawner.end();
+        }
+    }
+
+    private void addParticle(World world, double x, double y, double z) {
+        if (!ParticleBudget.tryConsume()) return;
+
+        if (this.deviationX != 0 || this.deviationY != 0 || this.deviationZ != 0) {
+            x = VectorRandomUtils.getRandomOffset(world, x, this.deviationX);
+            y = VectorRandomUtils.getRandomOffset(world, y, this.deviationY);
+            z = VectorRandomUtils.getRandomOffset(world, z, this.deviationZ);
+        }
+
+        double velocityX = this.velocityX, velocityY = this.velocityY, velocityZ = this.velocityZ;
+
+        if (this.randomizeVelocity) {
+            if (this.randomizationAxis == null) {
+                velocityX = VectorRandomUtils.getRandomOffset(world, 0, this.randomVelocityScalar);
+                velocityY = VectorRandomUtils.getRandomOffset(world, 0, this.randomVelocityScalar);
+                velocityZ = VectorRandomUtils.getRandomOffset(world, 0, this.randomVelocityScalar);
+            } else {
+                final var velocity = (world.random.nextDouble() * 2 - 1) * this.randomVelocityScalar;
+                velocityX = this.randomizationAxis == Direction.Axis.X ? velocity : 0;
+                velocityY = this.randomizationAxis == Direction.Axis.Y ? velocity : 0;
+                velocityZ = this.randomizationAxis == Direction.Axis.Z ? velocity : 0;
+            }
+        }
+
+        world.addParticle(this.particle, x, y, z, velocityX, velocityY, velocityZ);
+    }
+
+    public ParticleEffect particle() {
+        return this.particle;
+    }
+
+    public int count() {
+        return this.count;
+    }
+
+    public Shape shape() {
+        return this.shape;
+    }
+
+    /**
+     * The arrangement in which an emitter spawns its particles,
+     * relative to the position it is spawned at
+     */
+    @FunctionalInterface
+    public interface Shape {
+
+        /**
+         * All particles are spawned at the anchor position,
+         * use deviation to spread them out
+         */
+        Shape POINT = (count, consumer) -> {
+            for (int i = 0; i < count; i++) consumer.accept(0, 0, 0);
+        };
+
+        /**
+         * Emits {@code count} points, as offsets
+         * from the position the emitter is spawned at
+         *
+         * @param count    The particle count of the emitter
+         * @param consumer The consumer to emit points to
+         */
+        void emit(int count, PointConsumer consumer);
+
+        /**
+         * A line from the anchor position to the anchor position plus the given
+         * vector, consisting of {@code count} evenly spaced particles
+         *
+         * @param x The length of the line on the x-axis
+         * @param y The length of the line on the y-axis
+         * @param z The length of the line on the z-axis
+         * @return The line shape
+         */
+        static Shape line(double x, double y, double z) {
+            return (count, consumer) -> emitLine(count, consumer, 0, 0, 0, x, y, z);
+        }
+
+        /**
+         * The outline of a cube that starts at the anchor position and expands by
+         * {@code size} in positive direction on all axis. Every one of the twelve
+         * edges consists of {@code count} particles
+         *
+         * @param size The cube's side length
+         * @return The cube outline shape
+         */
+        static Shape cubeOutline(double size) {
+            return (count, consumer) -> {
+                for (int edge = 0; edge < 12; edge++) {
+                    final int axis = edge / 4, corner = edge % 4;
+
+                    // the two coordinates which stay constant along this edge
+                    final double first = (corner & 1) * size, second = (corner >> 1) * size;
+                    switch (axis) {
+                        case 0 -> emitLine(count, consumer, 0, first, second, size, first, second);
+                        case 1 -> emitLine(count, consumer, first, 0, second, first, size, second);
+                        default -> emitLine(count, consumer, first, second, 0, first, second, size);
+                    }
+                }
+            };
+        }
+
+        private static void emitLine(int count, PointConsumer consumer, double startX, double startY, double startZ, double endX, double endY, double endZ) {
+            final double step = 1d / count;
+            for (int i = 0; i < count; i++) {
+                consumer.accept(startX + (endX - startX) * i * step, startY + (endY - startY) * i * step, startZ + (endZ - startZ) * i * step);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(double x, double y, double z);
+    }
+
+    /**
+     * Spawns a particle of an emitter at every point emitted by its shape.
+     * Every thread reuses a single instance, so that spawning does not allocate
+     */
+    private static final class Spawner implements PointConsumer {
+
+        private ParticleEmitter emitter = null;
+        private World world = null;
+        private double x, y, z;
+
+        private void begin(ParticleEmitter emitter, World world, double x, double y, double z) {
+            this.emitter = emitter;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        private void end() {
+            this.emitter = null;
+            this.world = null;
+        }
+
+        @Override
+        public void accept(double x, double y, double z) {
+            this.emitter.addParticle(this.world, this.x + x, this.y + y, this.z + z);
+        }
+    }
+
+    public static final class Builder {
+
+        private final ParticleEffect particle;
+        private int count = 1;
+        private Shape shape = Shape.POINT;
+
+        private double deviationX = 0, deviationY = 0, deviationZ = 0;
+
+        private double velocityX = 0, velocityY = 0, velocityZ = 0;
+        private boolean randomizeVelocity = false;
+        private double randomVelocityScalar = 0;
+        private @Nullable Direction.Axis randomizationAxis = null;
+
+        private Builder(ParticleEffect particle) {
+            this.particle = particle;
+        }
+
+        private Builder(ParticleEmitter emitter) {
+            this.particle = emitter.particle;
+            this.count = emitter.count;
+            this.shape = emitter.shape;
+
+            this.deviationX = emitter.deviationX;
+            this.deviationY = emitter.deviationY;
+            this.deviationZ = emitter.deviationZ;
+
+            this.velocityX = emitter.velocityX;
+            this.velocityY = emitter.velocityY;
+            this.velocityZ = emitter.velocityZ;
+            this.randomizeVelocity = emitter.randomizeVelocity;
+            this.randomVelocityScalar = emitter.randomVelocityScalar;
+            this.randomizationAxis = emitter.randomizationAxis;
+        }
+
+        /**
+         * @param count How many particles to spawn, for some
+         *              shapes this is the amount per segment
+         */
+        public Builder count(int count) {
+            this.count = count;
+            return this;
+        }
+
+        public Builder shape(Shape shape) {
+            this.shape = shape;
+            return this;
+        }
+
+        /**
+         * @param deviation The size of the cube around every point of
+         *                  the shape in which its particle is randomly placed
+         */
+        public Builder deviation(double deviation) {
+            return this.deviation(deviation, deviation, deviation);
+        }
+
+        public Builder deviation(double x, double y, double z) {
+            this.deviationX = x;
+            this.deviationY = y;
+            this.deviationZ = z;
+            return this;
+        }
+
+        /**
+         * @param velocity The velocity to give each spawned particle
+         */
+        public Builder velocity(Vec3d velocity) {
+            return this.velocity(velocity.x, velocity.y, velocity.z);
+        }
+
+        public Builder velocity(double x, double y, double z) {
+            this.velocityX = x;
+            this.velocityY = y;
+            this.velocityZ = z;
+            this.randomizeVelocity = false;
+            return this;
+        }
+
+        /**
+         * Makes the emitter use a random velocity for each particle
+         *
+         * @param scalar The scalar to use for the generated velocities which
+         *               nominally range from -0.5 to 0.5 on each axis
+         */
+        public Builder randomVelocity(double scalar) {
+            this.randomizeVelocity = true;
+            this.randomVelocityScalar = scalar;
+            this.randomizationAxis = null;
+            return this;
+        }
+
+        /**
+         * Makes the emitter use a random velocity on the given axis for each particle
+         *
+         * @param scalar The scalar to use for the generated velocities which
+         *               nominally range from -1 to 1
+         * @param axis   The axis on which to apply random velocity
+         */
+        public Builder randomVelocityOnAxis(double scalar, Direction.Axis axis) {
+            this.randomizeVelocity = true;
+            this.randomVelocityScalar = scalar;
+            this.randomizationAxis = axis;
+            return this;
+        }
+
+        public ParticleEmitter build() {
+            if (this.count < 0) throw new IllegalStateException("Particle count must not be negative");
+            return new ParticleEmitter(this);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package io.wispforest.owo.particles;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.function.IntFunction;
+
+/**
+ * Parametric {@link ParticleEmitter.Shape}s. The points of a unit circle and a unit
+ * sphere are computed once per resolution and shared by all shapes, which only scale
+ * and translate them when spawning instead of evaluating trigonometric functions for
+ * every particle. Since the {@link ParticleBudget} may change the particle count of
+ * every spawn, circles and helices interpolate between the stored points, so that
+ * any count is spaced evenly
+ * <p>
+ * The shapes can be used with {@link ParticleEmitter.Builder#shape(ParticleEmitter.Shape)}
+ * or {@link ClientParticles#spawnShape(net.minecraft.particle.ParticleEffect, net.minecraft.world.World, Vec3d, ParticleEmitter.Shape, double)}
+ */
+@Environment(EnvType.CLIENT)
+public final class ParticleShapes {
+
+    /**
+     * The resolution used by the overloads which don't take one
+     */
+    public static final int DEFAULT_RESOLUTION = 256;
+
+    /**
+     * Tables for higher resolutions than this are not cached,
+     * so a single huge shape can't pin its table in memory
+     */
+    private static final int MAX_CACHED_RESOLUTION = 1 << 14;
+
+    // table layouts: cos, sin for circles and x, y, z for spheres
+    private static final Int2ObjectMap<double[]> CIRCLE_TABLES = new Int2ObjectOpenHashMap<>();
+    private static final Int2ObjectMap<double[]> SPHERE_TABLES = new Int2ObjectOpenHashMap<>();
+
+    private ParticleShapes() {}
+
+    /**
+     * A circle around the anchor position, made of
+     * {@code count} evenly spaced particles
+     *
+     * @param radius The radius of the circle
+     * @param normal The axis perpendicular to the plane of the circle
+     * @return The circle shape
+     */
+    public static ParticleEmitter.Shape circle(double radius, Direction.Axis normal) {
+        return circle(radius, normal, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * A circle around the anchor position, made of
+     * {@code count} evenly spaced particles
+     *
+     * @param radius     The radius of the circle
+     * @param normal     The axis perpendicular to the plane of the circle
+     * @param resolution The amount of points on the unit circle to interpolate between
+     * @return The circle shape
+     */
+    public static ParticleEmitter.Shape circle(double radius, Direction.Axis normal, int resolution) {
+        final var table = unitTable(CIRCLE_TABLES, resolution, ParticleShapes::computeCircle);
+
+        return (count, consumer) -> {
+            for (int i = 0; i < count; i++) {
+                final double position = (double) i * resolution / count;
+                final double first = circleCos(table, position) * radius, second = circleSin(table, position) * radius;
+
+                switch (normal) {
+                    case X -> consumer.accept(0, first, second);
+                    case Y -> consumer.accept(first, 0, second);
+                    case Z -> consumer.accept(first, second, 0);
+                }
+            }
+        };
+    }
+
+    /**
+     * The surface of a sphere around the anchor position,
+     * covered close to evenly by {@code count} particles
+     *
+     * @param radius The radius of the sphere
+     * @return The sphere shape
+     */
+    public static ParticleEmitter.Shape sphere(double radius) {
+        return sphere(radius, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * The surface of a sphere around the anchor position, covered close to evenly
+     * by {@code count} particles. The unit sphere is covered by {@code resolution}
+     * points on a fibonacci lattice, of which every particle picks the closest
+     * one in sequence - counts higher than the resolution thus repeat points
+     *
+     * @param radius     The radius of the sphere
+     * @param resolution The amount of points on the unit sphere to pick from
+     * @return The sphere shape
+     */
+    public static ParticleEmitter.Shape sphere(double radius, int resolution) {
+        final var table = unitTable(SPHERE_TABLES, resolution, ParticleShapes::computeSphere);
+
+        return (count, consumer) -> {
+            for (int i = 0; i < count; i++) {
+                final int index = count == 1 ? 0 : (int) Math.round(i * (resolution - 1) / (double) (count - 1));
+                consumer.accept(table[index * 3] * radius, table[index * 3 + 1] * radius, table[index * 3 + 2] * radius);
+            }
+        };
+    }
+
+    /**
+     * A helix winding upwards from the anchor position,
+     * made of {@code count} evenly spaced particles
+     *
+     * @param radius The radius of the helix
+     * @param height The total height of the helix
+     * @param turns  The amount of full turns the helix makes
+     * @return The helix shape
+     */
+    public static ParticleEmitter.Shape helix(double radius, double height, double turns) {
+        return helix(radius, height, turns, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * A helix winding upwards from the anchor position,
+     * made of {@code count} evenly spaced particles
+     *
+     * @param radius     The radius of the helix
+     * @param height     The total height of the helix
+     * @param turns      The amount of full turns the helix makes
+     * @param resolution The amount of points on the unit circle to interpolate between
+     * @return The helix shape
+     */
+    public static ParticleEmitter.Shape helix(double radius, double height, double turns, int resolution) {
+        final var table = unitTable(CIRCLE_TABLES, resolution, ParticleShapes::computeCircle);
+
+        return (count, consumer) -> {
+            for (int i = 0; i < count; i++) {
+                final double progress = count == 1 ? 0 : i / (double) (count - 1);
+
+                final double turn = turns * progress;
+                final double position = (turn - Math.floor(turn)) * resolution;
+
+                consumer.accept(circleCos(table, position) * radius, progress * height, circleSin(table, position) * radius);
+            }
+        };
+    }
+
+    /**
+     * A smooth Catmull-Rom spline passing through all of the given control points,
+     * which are interpreted relative to the anchor position. The {@code count}
+     * particles are distributed evenly across the segments of the spline
+     *
+     * @param controlPoints The points the spline passes through, at least two
+     * @return The spline shape
+     */
+    public static ParticleEmitter.Shape spline(Vec3d... controlPoints) {
+        if (controlPoints.length < 2) throw new IllegalArgumentException("A spline needs at least two control points");
+
+        // splines are plain polynomials, so evaluating them directly is cheap enough
+        final var points = controlPoints.clone();
+        final int segments = points.length - 1;
+
+        return (count, consumer) -> {
+            for (int i = 0; i < count; i++) {
+                final double t = count == 1 ? 0 : i * segments / (double) (count - 1);
+                final int segment = Math.min((int) t, segments - 1);
+                final double local = t - segment;
+
+                // the end points are repeated to provide the outer tangents
+                final var p0 = points[Math.max(segment - 1, 0)];
+                final var p1 = points[segment];
+                final var p2 = points[segment + 1];
+                final var p3 = points[Math.min(segment + 2, segments)];
+
+                consumer.accept(
+                        catmullRom(local, p0.x, p1.x, p2.x, p3.x),
+                        catmullRom(local, p0.y, p1.y, p2.y, p3.y),
+                        catmullRom(local, p0.z, p1.z, p2.z, p3.z)
+                );
+            }
+        };
+    }
+
+    private static double[] unitTable(Int2ObjectMap<double[]> tables, int resolution, IntFunction<double[]> factory) {
+        if (resolution < 1) throw new IllegalArgumentException("Shape resolution must be positive");
+        if (resolution > MAX_CACHED_RESOLUTION) return factory.apply(resolution);
+
+        synchronized (tables) {
+            var table = tables.get(resolution);
+            if (table == null) {
+                table = factory.apply(resolution);
+                tables.put(resolution, table);
+            }
+
+            return table;
+        }
+    }
+
+    /**
+     * Linearly interpolates the cosine at the given fractional
+     * index of a circle table, wrapping around at the end
+     */
+    private static double circleCos(double[] table, double position) {
+        final int resolution = table.length / 2, index = (int) position;
+        final double delta = position - index;
+        return table[index * 2] + (table[(index + 1) % resolution * 2] - table[index * 2]) * delta;
+    }
+
+    private static double circleSin(double[] table, double position) {
+        final int resolution = table.length / 2, index = (int) position;
+        final double delta = position - index;
+        return table[index * 2 + 1] + (table[(index + 1) % resolution * 2 + 1] - table[index * 2 + 1]) * delta;
+    }
+
+    private static double[] computeCircle(int resolution) {
+        final var table = new double[resolution * 2];
+
+        for (int i = 0; i < resolution; i++) {
+            final double angle = 2 * Math.PI * i / resolution;
+            table[i * 2] = Math.cos(angle);
+            table[i * 2 + 1] = Math.sin(angle);
+        }
+
+        return table;
+    }
+
+    /**
+     * Distributes the points on a fibonacci lattice,
+     * which covers the sphere close to uniformly
+     */
+    private static double[] computeSphere(int resolution) {
+        final var table = new double[resolution * 3];
+        final double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+
+        for (int i = 0; i < resolution; i++) {
+            final double y = resolution == 1 ? 0 : 1 - 2d * i / (resolution - 1);
+            final double ringRadius = Math.sqrt(Math.max(0, 1 - y * y));
+            final double angle = goldenAngle * i;
+
+            table[i * 3] = Math.cos(angle) * ringRadius;
+            table[i * 3 + 1] = y;
+            table[i * 3 + 2] = Math.sin(angle) * ringRadius;
+        }
+
+        return table;
+    }
+
+    private static double catmullRom(double t, double p0, double p1, double p2, double p3) {
+        final double t2 = t * t, t3 = t2 * t;
+        return .5 * (2 * p1 + (p2 - p0) * t + (2 * p0 - 5 * p1 + 4 * p2 - p3) * t2 + (3 * p1 - p0 - 3 * p2 + p3) * t3);
+    }
+}
@@ -1,5 +1,6 @@
 package io.wispforest.owo.particles.systems;
 
+import io.wispforest.owo.network.BufferSizeHint;
 import io.wispforest.owo.network.NetworkException;
 import io.wispforest.owo.network.serialization.PacketBufSerializer;
 import io.wispforest.owo.util.OwoFreezer;
@@ -37,7 +38,9 @@ public class ParticleSystem<T> {
     final Class<T> dataClass;
     final int index;
     final PacketBufSerializer<T> adapter;
+    final BufferSizeHint sizeHint = new BufferSizeHint();
     ParticleSystemExecutor<T> handler;
+    int priority = 0;
 
     private final boolean permitsContextlessExecution;
 
@@ -66,6 +69,22 @@ public class ParticleSystem<T> {
         this.handler = handler;
     }
 
+    /**
+     * Sets the priority of this particle system, which decides which spawns
+     * are sent first should a player exceed the tick budget of the controller.
+     * Systems have priority {@code 0} by default
+     *
+     * @param priority The priority of this system, higher values are sent first
+     * @return This particle system
+     * @see ParticleSystemController#tickBudget(int)
+     */
+    public ParticleSystem<T> setPriority(int priority) {
+        if (OwoFreezer.isFrozen()) throw new ServicesFrozenException("Particle systems can only be changed during mod init");
+
+        this.priority = priority;
+        return this;
+    }
+
     /**
      * Spawns, or displays, whichever term you prefer,
      * this particle system in the given world at the
@@ -12,22 +12,26 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
 import net.fabricmc.fabric.api.networking.v1.PlayerLookup;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.network.ClientPlayNetworkHandler;
 import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * A controller object that manages and creates {@link ParticleSystem}s.
@@ -37,6 +41,12 @@ import java.util.Map;
  * with the system's context data class and handler function. <b>It is important
  * that this is done on both client and server, otherwise joining the server
  * will fail in a handshake error</b>
+ * <p>
+ * Controllers whose systems are spawned many times per tick can opt into
+ * {@link #batchPackets()}, which sends every player a single packet per tick. To
+ * reduce the size of every spawn, a more compact {@link PositionEncoding} can be selected.
+ * Crowded areas can be kept from flooding clients with {@link #maxViewDistance(double)}
+ * and {@link #tickBudget(int)}
  */
 public class ParticleSystemController {
 
@@ -46,10 +56,31 @@ public class ParticleSystemController {
     @ApiStatus.Internal
     public final Int2ObjectMap<ParticleSystem<?>> systemsByIndex = new Int2ObjectOpenHashMap<>();
 
+    /**
+     * Never assigned to a system, marks packets
+     * containing a batch of system spawns
+     */
+    private static final int BATCH_INDEX = -1;
+
+    /**
+     * Batches are sent early once they would exceed this size,
+     * to stay clear of the vanilla custom payload size limit
+     */
+    private static final int MAX_BATCH_SIZE = 1 << 19;
+
     public final Identifier channelId;
     private int maxIndex = 0;
     private final String ownerClassName;
 
+    private PositionEncoding positionEncoding = PositionEncoding.DOUBLE;
+
+    private boolean batchPackets = false;
+    private final Map<ServerPlayerEntity, PacketByteBuf> pendingBatches = new HashMap<>();
+
+    private double maxViewDistanceSquared = -1;
+    private int tickBudget = -1;
+    private final Map<ServerPlayerEntity, List<BudgetedSpawn>> budgetedSpawns = new HashMap<>();
+
     /**
      * Creates a new controller with the given ID. Duplicate controller IDs
      * are not allowed - if there is a collision, the name of the
@@ -112,15 +143,151 @@ public class ParticleSystemController {
         return system;
     }
 
+    /**
+     * Enables batching of the packets sent by this controller. All systems
+     * spawned during a server tick are collected and every tracking player
+     * is sent a single packet at the end of the tick, containing all
+     * spawns they would otherwise have received individually
+     * <p>
+     * Only systems spawned on the server thread are batched - those
+     * spawned from other threads are sent immediately
+     * <p>
+     * Clients always understand batched packets, so this
+     * only has an effect when called on the server
+     *
+     * @return This controller
+     */
+    public ParticleSystemController batchPackets() {
+        OwoFreezer.checkRegister("Particle system controller settings");
+
+        this.batchPackets = true;
+        return this;
+    }
+
+    /**
+     * Selects how this controller transmits the positions at which its
+     * systems are spawned. <b>This must be called on both client and server,
+     * otherwise joining the server will fail in a handshake error</b>
+     *
+     * @param encoding The encoding to use
+     * @return This controller
+     * @see PositionEncoding
+     */
+    public ParticleSystemController positionEncoding(PositionEncoding encoding) {
+        OwoFreezer.checkRegister("Particle system controller settings");
+
+        this.positionEncoding = encoding;
+        return this;
+    }
+
+    public PositionEncoding positionEncoding() {
+        return this.positionEncoding;
+    }
+
+    /**
+     * Limits the distance at which players are sent the systems of this
+     * controller - players further away from the spawn position are skipped,
+     * even if they are tracking it
+     *
+     * @param distance The maximum distance in blocks
+     * @return This controller
+     */
+    public ParticleSystemController maxViewDistance(double distance) {
+        OwoFreezer.checkRegister("Particle system controller settings");
+        if (distance < 0) throw new IllegalArgumentException("View distance must not be negative");
+
+        this.maxViewDistanceSquared = distance * distance;
+        return this;
+    }
+
+    /**
+     * Limits how many systems of this controller every player is sent per server tick.
+     * Spawns are collected until the end of the tick, should a player exceed the budget
+     * only the spawns of the systems with the highest {@link ParticleSystem#setPriority(int) priority}
+     * are sent - among those of equal priority, earlier spawns win
+     * <p>
+     * Unless {@link #batchPackets()} is also enabled, the
+     * remaining spawns are then sent as individual packets.
+     * Systems spawned from threads other than the server
+     * thread are not subject to the budget
+     *
+     * @param spawnsPerPlayer The maximum amount of spawns each player receives per tick
+     * @return This controller
+     */
+    public ParticleSystemController tickBudget(int spawnsPerPlayer) {
+        OwoFreezer.checkRegister("Particle system controller settings");
+        if (spawnsPerPlayer < 0) throw new IllegalArgumentException("Tick budget must not be negative");
+
+        this.tickBudget = spawnsPerPlayer;
+        return this;
+    }
+
     <T> void sendPacket(ParticleSystem<T> particleSystem, ServerWorld world, Vec3d pos, T data) {
-        PacketByteBuf buf = PacketByteBufs.create();
+        final var targets = PlayerLookup.tracking(world, new BlockPos(pos));
+        if (targets.isEmpty()) return;
+
+        PacketByteBuf buf = particleSystem.sizeHint.allocate();
         buf.writeVarInt(particleSystem.index);
-        VectorSerializer.write(buf, pos);
+        this.positionEncoding.write(buf, pos);
         particleSystem.adapter.serializer().accept(buf, data);
+        particleSystem.sizeHint.record(buf.readableBytes());
+
+        for (var player : targets) {
+            if (this.maxViewDistanceSquared >= 0 && player.squaredDistanceTo(pos) > this.maxViewDistanceSquared) continue;
+
+            // like batches, budgets are only tracked on the server thread
+            if (this.tickBudget >= 0 && player.server.isOnThread()) {
+                this.budgetedSpawns.computeIfAbsent(player, p -> new ArrayList<>()).add(new BudgetedSpawn(particleSystem.priority, buf));
+            } else {
+                this.deliver(player, buf);
+            }
+        }
+    }
+
+    private void deliver(ServerPlayerEntity player, PacketByteBuf entry) {
+        // batches are only ever touched on the server thread, which also flushes them
+        if (this.batchPackets && player.server.isOnThread()) {
+            this.queueBatched(player, entry);
+        } else {
+            ServerPlayNetworking.send(player, channelId, PacketByteBufs.duplicate(entry));
+        }
+    }
+
+    private void flushBudgetedSpawns() {
+        if (this.budgetedSpawns.isEmpty()) return;
+
+        this.budgetedSpawns.forEach((player, spawns) -> {
+            // stable, so earlier spawns win among equal priorities
+            if (spawns.size() > this.tickBudget) spawns.sort(Comparator.comparingInt(BudgetedSpawn::priority).reversed());
+
+            for (int i = 0; i < Math.min(spawns.size(), this.tickBudget); i++) {
+                this.deliver(player, spawns.get(i).entry());
+            }
+        });
+        this.budgetedSpawns.clear();
+    }
 
-        for (var player : PlayerLookup.tracking(world, new BlockPos(pos))) {
-            ServerPlayNetworking.send(player, channelId, buf);
+    private void queueBatched(ServerPlayerEntity player, PacketByteBuf entry) {
+        var pendingBatch = this.pendingBatches.get(player);
+        if (pendingBatch != null && pendingBatch.readableBytes() + entry.readableBytes() > MAX_BATCH_SIZE) {
+            ServerPlayNetworking.send(player, channelId, pendingBatch);
+            this.pendingBatches.remove(player);
         }
+
+        final var batch = this.pendingBatches.computeIfAbsent(player, p -> {
+            final var buffer = PacketByteBufs.create();
+            buffer.writeVarInt(BATCH_INDEX);
+            return buffer;
+        });
+
+        batch.writeBytes(entry, entry.readerIndex(), entry.readableBytes());
+    }
+
+    private void flushBatches() {
+        if (this.pendingBatches.isEmpty()) return;
+
+        this.pendingBatches.forEach((player, batch) -> ServerPlayNetworking.send(player, channelId, batch));
+        this.pendingBatches.clear();
     }
 
     private void verify() {
@@ -142,24 +309,155 @@ public class ParticleSystemController {
                 controller.verify();
             }
         });
+
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            for (ParticleSystemController controller : REGISTERED_CONTROLLERS.values()) {
+                controller.flushBudgetedSpawns();
+                controller.flushBatches();
+            }
+        });
+
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            for (ParticleSystemController controller : REGISTERED_CONTROLLERS.values()) {
+                controller.pendingBatches.remove(handler.player);
+                controller.budgetedSpawns.remove(handler.player);
+            }
+        });
+    }
+
+    private record BudgetedSpawn(int priority, PacketByteBuf entry) {}
+
+    /**
+     * The precisions at which a controller can transmit
+     * the positions its systems are spawned at
+     */
+    public enum PositionEncoding {
+        /**
+         * Three doubles, exact - 24 bytes
+         */
+        DOUBLE {
+            @Override
+            void write(PacketByteBuf buf, Vec3d pos) {
+                VectorSerializer.write(buf, pos);
+            }
+
+            @Override
+            Vec3d read(PacketByteBuf buf) {
+                return VectorSerializer.read(buf);
+            }
+        },
+
+        /**
+         * Three floats - 12 bytes, precise to a few
+         * hundredths of a block within the world border
+         */
+        FLOAT {
+            @Override
+            void write(PacketByteBuf buf, Vec3d pos) {
+                buf.writeFloat((float) pos.x);
+                buf.writeFloat((float) pos.y);
+                buf.writeFloat((float) pos.z);
+            }
+
+            @Override
+            Vec3d read(PacketByteBuf buf) {
+                return new Vec3d(buf.readFloat(), buf.readFloat(), buf.readFloat());
+            }
+        },
+
+        /**
+         * The coordinates of the containing chunk section followed by the offset
+         * within it as 16-bit fixed point numbers - usually 10 to 13 bytes,
+         * precise to 1/4096 of a block
+         */
+        CHUNK_RELATIVE {
+            @Override
+            void write(PacketByteBuf buf, Vec3d pos) {
+                final int sectionX = MathHelper.floor(pos.x) >> 4;
+                final int sectionY = MathHelper.floor(pos.y) >> 4;
+                final int sectionZ = MathHelper.floor(pos.z) >> 4;
+
+                buf.writeVarInt(zigZag(sectionX));
+                buf.writeVarInt(zigZag(sectionY));
+                buf.writeVarInt(zigZag(sectionZ));
+
+                buf.writeShort(fixedPoint(pos.x - (sectionX << 4)));
+                buf.writeShort(fixedPoint(pos.y - (sectionY << 4)));
+                buf.writeShort(fixedPoint(pos.z - (sectionZ << 4)));
+            }
+
+            @Override
+            Vec3d read(PacketByteBuf buf) {
+                final int sectionX = unZigZag(buf.readVarInt());
+                final int sectionY = unZigZag(buf.readVarInt());
+                final int sectionZ = unZigZag(buf.readVarInt());
+
+                return new Vec3d(
+                        (sectionX << 4) + buf.readUnsignedShort() / SCALE,
+                        (sectionY << 4) + buf.readUnsignedShort() / SCALE,
+                        (sectionZ << 4) + buf.readUnsignedShort() / SCALE
+                );
+            }
+        };
+
+        abstract void write(PacketByteBuf buf, Vec3d pos);
+
+        abstract Vec3d read(PacketByteBuf buf);
+
+        private static final double SCALE = 4096;
+
+        private static int fixedPoint(double offset) {
+            return MathHelper.clamp((int) Math.round(offset * SCALE), 0, 0xFFFF);
+        }
+
+        // keeps the VarInts short for negative section coordinates
+        private static int zigZag(int value) {
+            return (value << 1) ^ (value >> 31);
+        }
+
+        private static int unZigZag(int value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
     }
 
     @Environment(EnvType.CLIENT)
     private class Client {
-        @SuppressWarnings("unchecked")
         private void handler(MinecraftClient client, ClientPlayNetworkHandler networkHandler, PacketByteBuf buf, PacketSender sender) {
             int index = buf.readVarInt();
 
-            Vec3d pos = VectorSerializer.read(buf);
+            if (index == BATCH_INDEX) {
+                final var spawns = new ArrayList<Runnable>();
+
+                while (buf.isReadable()) {
+                    final var spawn = this.readSpawn(client, buf.readVarInt(), buf);
+
+                    // the remaining entries can't be located without knowing this one's size
+                    if (spawn == null) break;
+                    spawns.add(spawn);
+                }
+
+                client.execute(() -> {
+                    for (var spawn : spawns) spawn.run();
+                });
+                return;
+            }
+
+            final var spawn = this.readSpawn(client, index, buf);
+            if (spawn != null) client.execute(spawn);
+        }
+
+        @SuppressWarnings("unchecked")
+        private @Nullable Runnable readSpawn(MinecraftClient client, int index, PacketByteBuf buf) {
+            Vec3d pos = positionEncoding.read(buf);
 
             if (maxIndex <= index || index < 0) {
                 Owo.LOGGER.warn("Received unknown particle system index {} on channel {}", index, channelId);
-                return;
+                return null;
             }
 
             ParticleSystem<Object> system = (ParticleSystem<Object>) systemsByIndex.get(index);
             var data = system.adapter.deserializer().apply(buf);
-            client.execute(() -> system.handler.executeParticleSystem(client.world, pos, data));
+            return () -> system.handler.executeParticleSystem(client.world, pos, data);
         }
     }
 }
@@ -10,8 +10,9 @@ import java.util.List;
  * A simple utility for freezing services after mod initialization.
  */
 public final class OwoFreezer {
+    // guarded by the class lock, since services may be set up from other threads
     private static final List<Runnable> FREEZE_CALLBACKS = new ArrayList<>();
-    private static boolean IS_FROZEN = false;
+    private static volatile boolean IS_FROZEN = false;
     private static String FREEZER_CLASS = null;
 
     private OwoFreezer() {}
@@ -21,10 +22,26 @@ public final class OwoFreezer {
      *
      * @param callback the callback to register
      */
-    public static void registerFreezeCallback(Runnable callback) {
+    public static synchronized void registerFreezeCallback(Runnable callback) {
         FREEZE_CALLBACKS.add(callback);
     }
 
+    /**
+     * Registers an on freeze callback, unless services are already frozen.
+     * Checking and registering happen atomically, so the callback is
+     * either invoked by {@link #freeze()} or this returns {@code false}
+     *
+     * @param callback the callback to register
+     * @return {@code true} if the callback was registered
+     */
+    @ApiStatus.Internal
+    public static synchronized boolean tryRegisterFreezeCallback(Runnable callback) {
+        if (IS_FROZEN) return false;
+
+        FREEZE_CALLBACKS.add(callback);
+        return true;
+    }
+
     /**
      * @return {@code true} if services are frozen
      */
@@ -45,14 +62,18 @@ public final class OwoFreezer {
 
     @ApiStatus.Internal
     public static void freeze() {
-        if (IS_FROZEN) {
-            throw new ServicesFrozenException(ReflectionUtils.getCallingClassName(2) + " tried to freeze services after they were already frozen by " + FREEZER_CLASS);
-        }
+        final List<Runnable> callbacks;
+        synchronized (OwoFreezer.class) {
+            if (IS_FROZEN) {
+                throw new ServicesFrozenException(ReflectionUtils.getCallingClassName(2) + " tried to freeze services after they were already frozen by " + FREEZER_CLASS);
+            }
 
-        IS_FROZEN = true;
-        FREEZER_CLASS = ReflectionUtils.getCallingClassName(2);
+            IS_FROZEN = true;
+            FREEZER_CLASS = ReflectionUtils.getCallingClassName(2);
+            callbacks = List.copyOf(FREEZE_CALLBACKS);
+        }
 
-        for (Runnable callback : FREEZE_CALLBACKS) {
+        for (Runnable callback : callbacks) {
             callback.run();
         }
 
@@ -56,13 +56,26 @@ public class VectorRandomUtils {
      */
     public static Vec3d getRandomOffsetSpecific(World world, Vec3d center, double deviationX, double deviationY, double deviationZ) {
 
-        final var r = world.getRandom();
-
-        double x = center.getX() + (r.nextDouble() - 0.5) * deviationX;
-        double y = center.getY() + (r.nextDouble() - 0.5) * deviationY;
-        double z = center.getZ() + (r.nextDouble() - 0.5) * deviationZ;
+        double x = getRandomOffset(world, center.getX(), deviationX);
+        double y = getRandomOffset(world, center.getY(), deviationY);
+        double z = getRandomOffset(world, center.getZ(), deviationZ);
 
         return new Vec3d(x, y, z);
     }
 
+    /**
+     * Generates a random offset from {@code center} on a single axis. Calling this
+     * for the x, y and z coordinates in order yields the same point as
+     * {@link #getRandomOffsetSpecific(World, Vec3d, double, double, double)},
+     * without allocating a vector
+     *
+     * @param world     The world to operate in
+     * @param center    The center coordinate to start with
+     * @param deviation The length of the selection range
+     * @return The generated coordinate
+     */
+    public static double getRandomOffset(World world, double center, double deviation) {
+        return center + (world.getRandom().nextDouble() - 0.5) * deviation;
+    }
+
 }
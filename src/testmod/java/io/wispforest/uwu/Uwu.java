@@ -5,6 +5,7 @@ import com.mojang.authlib.GameProfile;
 import io.wispforest.owo.itemgroup.Icon;
 import io.wispforest.owo.itemgroup.OwoItemGroup;
 import io.wispforest.owo.itemgroup.gui.ItemGroupButton;
+import io.wispforest.owo.network.ChannelMetrics;
 import io.wispforest.owo.network.OwoNetChannel;
 import io.wispforest.owo.offline.OfflineAdvancementLookup;
 import io.wispforest.owo.offline.OfflineDataLookup;
@@ -207,6 +208,34 @@ public class Uwu implements ModInitializer {
                                                 return 0;
                                             }))));
 
+            dispatcher.register(
+                    literal("test_broadcast_encoding")
+                            .executes(context -> {
+                                final var player = context.getSource().getPlayerOrThrow();
+                                if (!ChannelMetrics.enabled()) {
+                                    context.getSource().sendError(Text.literal("Network metrics are disabled"));
+                                    return 0;
+                                }
+
+                                final var before = CHANNEL.metrics().get(OtherTestMessage.class);
+                                final long encodedBefore = before == null ? 0 : before.messagesEncoded();
+                                final long sentBefore = before == null ? 0 : before.messagesSent();
+
+                                // three targets, which must all be sent the same encoded buffer
+                                CHANNEL.serverHandle(List.of(player, player, player)).send(new OtherTestMessage(player.getBlockPos(), "broadcast"));
+
+                                final var after = CHANNEL.metrics().get(OtherTestMessage.class);
+                                final long encoded = after.messagesEncoded() - encodedBefore, sent = after.messagesSent() - sentBefore;
+
+                                if (encoded == 1 && sent == 3) {
+                                    context.getSource().sendFeedback(Text.literal("Encoded once for 3 targets"), false);
+                                    return 1;
+                                } else {
+                                    context.getSource().sendError(Text.literal("Encoded " + encoded + " times for " + sent + " targets"));
+                                    return 0;
+                                }
+                            }));
+
         });
 
         CustomTextRegistry.register("based", BasedTextContent.Serializer.INSTANCE);
@@ -17,6 +17,7 @@ public class UwuClient implements ClientModInitializer {
     public void onInitializeClient() {
         UwuNetworkExample.Client.init();
         UwuOptionalNetExample.Client.init();
+        UwuParticleAllocationTest.init();
 
         Uwu.CHANNEL.registerClientbound(Uwu.OtherTestMessage.class, (message, access) -> {
             access.player().sendMessage(Text.of("Message '" + message.message() + "' from " + message.pos()), false);
@@ -0,0 +1,78 @@
+package io.wispforest.uwu.client;
+
+import io.wispforest.owo.particles.ClientParticles;
+import io.wispforest.owo.particles.ParticleEmitter;
+import io.wispforest.owo.particles.ParticleShapes;
+import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.Direction;
+
+import java.lang.management.ManagementFactory;
+
+import static net.fabricmc.fabric.api.client.command.v2.ClientCommandManager.literal;
+
+/**
+ * Measures how many bytes spawning a particle through oωo allocates, which should
+ * be none. Vanilla drops particles this far from the camera before creating them,
+ * so only the allocations of oωo itself are measured
+ */
+public class UwuParticleAllocationTest {
+
+    private static final int BATCH_SIZE = 64;
+    private static final int BATCHES = 5000;
+
+    public static void init() {
+        ClientCommandRegistrationCallback.EVENT.register((dispatcher, access) -> {
+            dispatcher.register(literal("test_particle_allocations").executes(context -> {
+                final var client = MinecraftClient.getInstance();
+                final var world = client.world;
+                final var pos = client.gameRenderer.getCamera().getPos().add(0, 100, 0);
+
+                final var circle = ParticleShapes.circle(2, Direction.Axis.Y);
+                final var emitter = ParticleEmitter.builder(ParticleTypes.END_ROD)
+                        .count(BATCH_SIZE)
+                        .shape(ParticleShapes.sphere(1))
+                        .deviation(.1)
+                        .randomVelocity(.1)
+                        .build();
+
+                measure(context.getSource(), "ClientParticles#spawn", () -> {
+                    ClientParticles.setParticleCount(BATCH_SIZE);
+                    ClientParticles.randomizeVelocity(.1);
+                    ClientParticles.spawn(ParticleTypes.END_ROD, world, pos, .1);
+                });
+
+                measure(context.getSource(), "ClientParticles#spawnShape", () -> {
+                    ClientParticles.setParticleCount(BATCH_SIZE);
+                    ClientParticles.spawnShape(ParticleTypes.END_ROD, world, pos, circle, .1);
+                });
+
+                measure(context.getSource(), "ParticleEmitter#spawn", () -> emitter.spawn(world, pos));
+                return 1;
+            }));
+        });
+    }
+
+    private static void measure(FabricClientCommandSource source, String name, Runnable spawnBatch) {
+        // let the JIT compile the spawn path first
+        for (int i = 0; i < BATCHES; i++) spawnBatch.run();
+
+        final long before = allocatedBytes();
+        for (int i = 0; i < BATCHES; i++) spawnBatch.run();
+        final double perParticle = (allocatedBytes() - before) / (double) (BATCHES * BATCH_SIZE);
+
+        final var result = Text.literal(String.format("%s: %.3f bytes allocated per particle", name, perParticle));
+        if (perParticle < 1) {
+            source.sendFeedback(result);
+        } else {
+            source.sendError(result);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}